@@ -30,6 +30,8 @@ public class ViaBedrockConfig extends Config implements net.raphimc.viabedrock.p
 
     private boolean enableExperimentalFeatures;
     private BlobCacheMode blobCacheMode;
+    private int blobCacheMaxSize;
+    private int blobCacheMemorySize;
     private boolean translateResourcePacks;
     private String resourcePackHost;
     private int resourcePackPort;
@@ -41,6 +43,15 @@ public class ViaBedrockConfig extends Config implements net.raphimc.viabedrock.p
     private String viaProxyAuthSecret;
     private boolean enableServerEntityAnimation;
     private int javaSkinFetchTimeout;
+    private int maxDecompressedBatchSize;
+    private ZLibBackend zLibBackend;
+    private int chunkRemapThreads;
+    private int chunksPerTick;
+    private int chunkSendTimeBudget;
+    private int eventLoopChunksPerTick;
+    private int lightComputeThreads;
+    private int lightComputeQueueSize;
+    private int lightCacheSize;
 
     public ViaBedrockConfig(final File configFile, final Logger logger) {
         super(configFile, logger);
@@ -55,6 +66,8 @@ public class ViaBedrockConfig extends Config implements net.raphimc.viabedrock.p
     private void loadFields() {
         this.enableExperimentalFeatures = this.getBoolean("enable-experimental-features", false);
         this.blobCacheMode = BlobCacheMode.byName(this.getString("blob-cache", "disk"));
+        this.blobCacheMaxSize = this.getInt("blob-cache-max-size", 1024);
+        this.blobCacheMemorySize = this.getInt("blob-cache-memory-size", 64);
         this.translateResourcePacks = this.getBoolean("translate-resource-packs", true);
         this.resourcePackHost = this.getString("resource-pack-host", "127.0.0.1");
         this.resourcePackPort = this.getInt("resource-pack-port", 0);
@@ -66,6 +79,15 @@ public class ViaBedrockConfig extends Config implements net.raphimc.viabedrock.p
         this.viaProxyAuthSecret = this.getString("viaproxy-auth-secret", "");
         this.enableServerEntityAnimation = this.getBoolean("enable-server-entity-animation", true);
         this.javaSkinFetchTimeout = this.getInt("java-skin-fetch-timeout", 1000);
+        this.maxDecompressedBatchSize = this.getInt("max-decompressed-batch-size", 33554432);
+        this.zLibBackend = ZLibBackend.byName(this.getString("zlib-backend", "pooled"));
+        this.chunkRemapThreads = this.getInt("chunk-remap-threads", 0);
+        this.chunksPerTick = this.getInt("chunks-per-tick", 8);
+        this.chunkSendTimeBudget = this.getInt("chunk-send-time-budget", 10);
+        this.eventLoopChunksPerTick = this.getInt("event-loop-chunks-per-tick", 0);
+        this.lightComputeThreads = this.getInt("light-compute-threads", 2);
+        this.lightComputeQueueSize = this.getInt("light-compute-queue-size", 1024);
+        this.lightCacheSize = this.getInt("light-cache-size", 128);
     }
 
     @Override
@@ -92,6 +114,16 @@ public class ViaBedrockConfig extends Config implements net.raphimc.viabedrock.p
         return this.blobCacheMode;
     }
 
+    @Override
+    public int getBlobCacheMaxSize() {
+        return this.blobCacheMaxSize;
+    }
+
+    @Override
+    public int getBlobCacheMemorySize() {
+        return this.blobCacheMemorySize;
+    }
+
     @Override
     public boolean shouldTranslateResourcePacks() {
         return this.translateResourcePacks;
@@ -147,4 +179,49 @@ public class ViaBedrockConfig extends Config implements net.raphimc.viabedrock.p
         return this.javaSkinFetchTimeout;
     }
 
+    @Override
+    public int getMaxDecompressedBatchSize() {
+        return this.maxDecompressedBatchSize;
+    }
+
+    @Override
+    public ZLibBackend getZLibBackend() {
+        return this.zLibBackend;
+    }
+
+    @Override
+    public int getChunkRemapThreads() {
+        return this.chunkRemapThreads;
+    }
+
+    @Override
+    public int getChunksPerTick() {
+        return this.chunksPerTick;
+    }
+
+    @Override
+    public int getChunkSendTimeBudget() {
+        return this.chunkSendTimeBudget;
+    }
+
+    @Override
+    public int getEventLoopChunksPerTick() {
+        return this.eventLoopChunksPerTick;
+    }
+
+    @Override
+    public int getLightComputeThreads() {
+        return this.lightComputeThreads;
+    }
+
+    @Override
+    public int getLightComputeQueueSize() {
+        return this.lightComputeQueueSize;
+    }
+
+    @Override
+    public int getLightCacheSize() {
+        return this.lightCacheSize;
+    }
+
 }
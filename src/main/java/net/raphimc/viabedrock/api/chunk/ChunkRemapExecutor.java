@@ -0,0 +1,56 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.api.chunk;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.raphimc.viabedrock.ViaBedrock;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Global worker pool used to remap chunks off the netty event loops.
+ */
+public final class ChunkRemapExecutor {
+
+    private static final ChunkRemapExecutor INSTANCE = new ChunkRemapExecutor();
+
+    public static ChunkRemapExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    private ExecutorService executor;
+
+    private ChunkRemapExecutor() {
+    }
+
+    /**
+     * @return true if chunks should be remapped on the worker pool
+     */
+    public boolean isEnabled() {
+        return ViaBedrock.getConfig().getChunkRemapThreads() > 0;
+    }
+
+    public synchronized ExecutorService getExecutor() {
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(ViaBedrock.getConfig().getChunkRemapThreads(), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ViaBedrock-Chunk-Remapper-%d").build());
+        }
+        return this.executor;
+    }
+
+}
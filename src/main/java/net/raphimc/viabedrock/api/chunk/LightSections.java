@@ -0,0 +1,135 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.api.chunk;
+
+import com.viaversion.viaversion.api.minecraft.chunks.ChunkSectionLight;
+import com.viaversion.viaversion.api.protocol.packet.PacketWrapper;
+import com.viaversion.viaversion.api.type.Types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Helpers for light data stored as one nibble array per light section (including the sections below and above the world).
+ * <p>
+ * Uniform light sections are represented by shared arrays, so light arrays have to be treated as copy on write:
+ * Never modify a light array which might be shared, write into a copy instead.
+ */
+public class LightSections {
+
+    private static final byte[] FULL_BRIGHT = new byte[ChunkSectionLight.LIGHT_LENGTH];
+    private static final byte[] DARK = new byte[ChunkSectionLight.LIGHT_LENGTH];
+
+    static {
+        Arrays.fill(FULL_BRIGHT, (byte) 0xFF);
+    }
+
+    /**
+     * @param lightSectionCount The amount of light sections
+     * @return Light data where every section is lit with light level 15
+     */
+    public static byte[][] fullBright(final int lightSectionCount) {
+        final byte[][] lightData = new byte[lightSectionCount][];
+        Arrays.fill(lightData, FULL_BRIGHT);
+        return lightData;
+    }
+
+    /**
+     * Replaces all sections which are completely lit or completely dark with the shared arrays.
+     *
+     * @param lightData The light data to deduplicate
+     * @return The given light data
+     */
+    public static byte[][] share(final byte[][] lightData) {
+        for (int i = 0; i < lightData.length; i++) {
+            final byte[] section = lightData[i];
+            if (section == null || section == FULL_BRIGHT || section == DARK) continue;
+
+            final byte first = section[0];
+            if (first != 0 && first != (byte) 0xFF) continue;
+            if (isUniform(section, first)) {
+                lightData[i] = first == 0 ? DARK : FULL_BRIGHT;
+            }
+        }
+        return lightData;
+    }
+
+    /**
+     * @param section The light section
+     * @return true if the section is missing or has light level 0 everywhere
+     */
+    public static boolean isEmpty(final byte[] section) {
+        if (section == null || section == DARK) return true;
+        if (section == FULL_BRIGHT) return false;
+        return isUniform(section, (byte) 0);
+    }
+
+    /**
+     * Writes the light masks and light arrays of the given sections. Dark sections are sent using the empty light masks instead of their data.
+     *
+     * @param wrapper            The packet to write to
+     * @param skyLight           The sky light data
+     * @param blockLight         The block light data
+     * @param skyLightSections   The sky light sections to write
+     * @param blockLightSections The block light sections to write
+     */
+    public static void write(final PacketWrapper wrapper, final byte[][] skyLight, final byte[][] blockLight, final BitSet skyLightSections, final BitSet blockLightSections) {
+        final BitSet skyLightMask = new BitSet();
+        final BitSet blockLightMask = new BitSet();
+        final BitSet emptySkyLightMask = new BitSet();
+        final BitSet emptyBlockLightMask = new BitSet();
+        final List<byte[]> skyLightArrays = collect(skyLight, skyLightSections, skyLightMask, emptySkyLightMask);
+        final List<byte[]> blockLightArrays = collect(blockLight, blockLightSections, blockLightMask, emptyBlockLightMask);
+
+        wrapper.write(Types.LONG_ARRAY_PRIMITIVE, skyLightMask.toLongArray()); // sky light mask
+        wrapper.write(Types.LONG_ARRAY_PRIMITIVE, blockLightMask.toLongArray()); // block light mask
+        wrapper.write(Types.LONG_ARRAY_PRIMITIVE, emptySkyLightMask.toLongArray()); // empty sky light mask
+        wrapper.write(Types.LONG_ARRAY_PRIMITIVE, emptyBlockLightMask.toLongArray()); // empty block light mask
+        wrapper.write(Types.VAR_INT, skyLightArrays.size()); // sky light length
+        for (byte[] array : skyLightArrays) {
+            wrapper.write(Types.BYTE_ARRAY_PRIMITIVE, array); // sky light
+        }
+        wrapper.write(Types.VAR_INT, blockLightArrays.size()); // block light length
+        for (byte[] array : blockLightArrays) {
+            wrapper.write(Types.BYTE_ARRAY_PRIMITIVE, array); // block light
+        }
+    }
+
+    private static List<byte[]> collect(final byte[][] lightData, final BitSet sections, final BitSet mask, final BitSet emptyMask) {
+        final List<byte[]> arrays = new ArrayList<>();
+        for (int i = sections.nextSetBit(0); i >= 0 && i < lightData.length; i = sections.nextSetBit(i + 1)) {
+            if (isEmpty(lightData[i])) {
+                emptyMask.set(i);
+            } else {
+                mask.set(i);
+                arrays.add(lightData[i]);
+            }
+        }
+        return arrays;
+    }
+
+    private static boolean isUniform(final byte[] section, final byte value) {
+        for (byte b : section) {
+            if (b != value) return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.api.chunk.datapalette;
+
+import com.viaversion.viaversion.api.minecraft.chunks.ChunkSection;
+import com.viaversion.viaversion.api.minecraft.chunks.DataPalette;
+import net.raphimc.viabedrock.api.chunk.bitarray.BitArray;
+import net.raphimc.viabedrock.api.chunk.bitarray.BitArrayVersion;
+
+/**
+ * Transcodes Bedrock block palettes into Java palettes without going through the per-block id lookups of {@link DataPalette#setIdAt(int, int)}.<br>
+ * The Bedrock bit array words are unpacked with a loop specialized for the bits per entry and the palette indices are written through a precomputed Bedrock (xzy) to Java (yzx) index permutation.
+ */
+public class BedrockPaletteTranscoder {
+
+    /**
+     * Maps a Bedrock section index (x << 8 | z << 4 | y) to a Java section index (y << 8 | z << 4 | x)
+     */
+    private static final short[] BEDROCK_TO_JAVA_INDEX = new short[ChunkSection.SIZE];
+
+    static {
+        for (int i = 0; i < ChunkSection.SIZE; i++) {
+            final int x = i >> 8;
+            final int z = (i >> 4) & 15;
+            final int y = i & 15;
+            BEDROCK_TO_JAVA_INDEX[i] = (short) (y << 8 | z << 4 | x);
+        }
+    }
+
+    /**
+     * Copies the used palette entries and the palette indices of the source palette into the given empty Java palette.<br>
+     * Palette entries which aren't used by any block are dropped, so they don't increase the bits per entry of the Java palette.
+     *
+     * @param source The Bedrock source palette
+     * @param target The empty Java target palette
+     */
+    public static void transcode(final BedrockDataPalette source, final DataPalette target) {
+        final BitArray bitArray = source.getBitArray();
+        if (bitArray.getVersion() == BitArrayVersion.V0) {
+            target.addId(source.idByIndex(0));
+            for (int i = 0; i < ChunkSection.SIZE; i++) {
+                target.setPaletteIndexAt(i, 0);
+            }
+            return;
+        }
+        if (bitArray.size() != ChunkSection.SIZE) {
+            throw new IllegalArgumentException("Invalid bit array size: " + bitArray.size());
+        }
+
+        final int[] paletteIndices = unpack(bitArray);
+        final int paletteSize = source.size();
+        final boolean[] used = new boolean[paletteSize];
+        for (int i = 0; i < ChunkSection.SIZE; i++) {
+            if (paletteIndices[i] >= paletteSize) {
+                throw new IndexOutOfBoundsException("Palette index " + paletteIndices[i] + " out of bounds for palette size " + paletteSize);
+            }
+            used[paletteIndices[i]] = true;
+        }
+        final int[] compactIndices = new int[paletteSize];
+        int compactSize = 0;
+        for (int i = 0; i < paletteSize; i++) {
+            if (used[i]) {
+                compactIndices[i] = compactSize++;
+                target.addId(source.idByIndex(i));
+            }
+        }
+
+        for (int i = 0; i < ChunkSection.SIZE; i++) {
+            target.setPaletteIndexAt(BEDROCK_TO_JAVA_INDEX[i], compactIndices[paletteIndices[i]]);
+        }
+    }
+
+    /**
+     * Unpacks all entries of the given bit array in Bedrock index order.
+     *
+     * @param bitArray The bit array
+     * @return The unpacked entries
+     */
+    public static int[] unpack(final BitArray bitArray) {
+        final int[] words = bitArray.getWords();
+        final int[] entries = new int[bitArray.size()];
+        switch (bitArray.getVersion()) {
+            case V0 -> {
+            }
+            case V1 -> unpack1(words, entries);
+            case V2 -> unpack2(words, entries);
+            case V4 -> unpack4(words, entries);
+            case V8 -> unpack8(words, entries);
+            case V16 -> unpack16(words, entries);
+            case V3 -> unpackPadded(words, entries, 3, 10);
+            case V5 -> unpackPadded(words, entries, 5, 6);
+            case V6 -> unpackPadded(words, entries, 6, 5);
+        }
+        return entries;
+    }
+
+    private static void unpack1(final int[] words, final int[] entries) {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = words[i >> 5] >>> (i & 31) & 1;
+        }
+    }
+
+    private static void unpack2(final int[] words, final int[] entries) {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = words[i >> 4] >>> ((i & 15) << 1) & 3;
+        }
+    }
+
+    private static void unpack4(final int[] words, final int[] entries) {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = words[i >> 3] >>> ((i & 7) << 2) & 15;
+        }
+    }
+
+    private static void unpack8(final int[] words, final int[] entries) {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = words[i >> 2] >>> ((i & 3) << 3) & 255;
+        }
+    }
+
+    private static void unpack16(final int[] words, final int[] entries) {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = words[i >> 1] >>> ((i & 1) << 4) & 65535;
+        }
+    }
+
+    private static void unpackPadded(final int[] words, final int[] entries, final int bits, final int entriesPerWord) {
+        final int mask = (1 << bits) - 1;
+        int index = 0;
+        for (int wordIndex = 0; wordIndex < words.length && index < entries.length; wordIndex++) {
+            final int word = words[wordIndex];
+            for (int offset = 0; offset < entriesPerWord * bits && index < entries.length; offset += bits) {
+                entries[index++] = word >>> offset & mask;
+            }
+        }
+    }
+
+}
@@ -17,25 +17,31 @@
  */
 package net.raphimc.viabedrock.api.http;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.viaversion.viaversion.api.connection.UserConnection;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.*;
-import io.netty.handler.stream.ChunkedStream;
-import io.netty.handler.stream.ChunkedWriteHandler;
 import net.raphimc.viabedrock.ViaBedrock;
 import net.raphimc.viabedrock.api.model.resourcepack.ResourcePack;
 import net.raphimc.viabedrock.experimental.resourcepack.JavaPackCache;
 import net.raphimc.viabedrock.protocol.rewriter.ResourcePackRewriter;
+import net.raphimc.viabedrock.protocol.rewriter.resourcepack.CustomSoundResourceRewriter;
 import net.raphimc.viabedrock.protocol.storage.ResourcePacksStorage;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 
 public class ResourcePackHttpServer {
@@ -43,8 +49,13 @@ public class ResourcePackHttpServer {
     private final InetSocketAddress bindAddress;
     private final ChannelFuture channelFuture;
     private final Map<UUID, ConnectionInfo> connections = new HashMap<>();
+    private final Map<String, CompletableFuture<CachedPack>> conversions = new HashMap<>();
+    private final ExecutorService conversionExecutor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ViaBedrock-Pack-Converter-%d").build());
 
-    private record ConnectionInfo(UserConnection user, String cacheKey) {
+    private record ConnectionInfo(UserConnection user, String cacheKey, CompletableFuture<CachedPack> pack) {
+    }
+
+    private record CachedPack(File file, String hash, Map<String, Object> converterData) { // The converter data is null if the pack was already cached
     }
 
     public ResourcePackHttpServer(final InetSocketAddress bindAddress) {
@@ -59,10 +70,9 @@ public class ResourcePackHttpServer {
                     @Override
                     protected void initChannel(Channel channel) {
                         channel.pipeline().addLast("http_codec", new HttpServerCodec());
-                        channel.pipeline().addLast("chunked_writer", new ChunkedWriteHandler());
                         channel.pipeline().addLast("http_handler", new SimpleChannelInboundHandler<>() {
                             @Override
-                            protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws InterruptedException {
+                            protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
                                 if (msg instanceof HttpRequest request) {
                                     if (!request.method().equals(HttpMethod.GET)) {
                                         ctx.close();
@@ -75,53 +85,29 @@ public class ResourcePackHttpServer {
                                         return;
                                     }
                                     final UUID uuid = UUID.fromString(queryStringDecoder.parameters().get("token").get(0));
-                                    final ConnectionInfo connInfo = ResourcePackHttpServer.this.connections.get(uuid);
+                                    final ConnectionInfo connInfo;
+                                    synchronized (ResourcePackHttpServer.this.connections) {
+                                        connInfo = ResourcePackHttpServer.this.connections.get(uuid);
+                                    }
                                     if (connInfo == null) {
                                         ctx.close();
                                         return;
                                     }
 
-                                    final ResourcePacksStorage resourcePacksStorage = connInfo.user().get(ResourcePacksStorage.class);
-                                    while (!resourcePacksStorage.hasFinishedLoading()) {
-                                        Thread.sleep(100);
-                                    }
-
-                                    try {
-                                        final String cacheKey = connInfo.cacheKey();
-                                        final JavaPackCache cache = ViaBedrock.getJavaPackCache();
-
-                                        final byte[] data;
-                                        if (cache.has(cacheKey)) {
-                                            data = cache.getData(cacheKey);
-                                            ViaBedrock.getPlatform().getLogger().log(Level.INFO, "Serving cached java resource pack");
-                                        } else {
-                                            final long start = System.nanoTime();
-                                            final ResourcePack.Content javaContent = ResourcePackRewriter.bedrockToJava(resourcePacksStorage);
-                                            // Always include bedrock mcpack files for VBU compatibility,
-                                            // regardless of whether VBU channel is registered at this point
-                                            for (ResourcePack pack : resourcePacksStorage.getPacks()) {
-                                                final String mcpackPath = "bedrock/" + pack.packId() + ".mcpack";
-                                                if (javaContent.get(mcpackPath) == null) {
-                                                    javaContent.put(mcpackPath, pack.content().toZip());
-                                                }
-                                            }
-                                            data = javaContent.toZip();
-                                            final long end = System.nanoTime();
-                                            ViaBedrock.getPlatform().getLogger().log(Level.INFO, "Converted packs in " + ((end - start) / 1_000_000L) + "ms");
-                                            cache.put(cacheKey, data);
+                                    // The pack might still be converting. Don't block the event loop, as it is shared with other downloads.
+                                    ResourcePackHttpServer.this.startConversion(connInfo.user());
+                                    connInfo.pack().whenComplete((pack, e) -> ctx.executor().execute(() -> {
+                                        if (e != null) {
+                                            ctx.close();
+                                            return;
                                         }
-
-                                        final DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-                                        response.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
-                                        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream");
-                                        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, data.length);
-                                        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
-                                        ctx.write(response);
-                                        ctx.writeAndFlush(new HttpChunkedInput(new ChunkedStream(new ByteArrayInputStream(data), 65535))).addListener(ChannelFutureListener.CLOSE);
-                                    } catch (Throwable e) {
-                                        ViaBedrock.getPlatform().getLogger().log(Level.SEVERE, "Failed to convert resource packs", e);
-                                        ctx.close();
-                                    }
+                                        try {
+                                            ResourcePackHttpServer.this.sendPack(ctx, request, pack);
+                                        } catch (Throwable e2) {
+                                            ViaBedrock.getPlatform().getLogger().log(Level.SEVERE, "Failed to send java resource pack", e2);
+                                            ctx.close();
+                                        }
+                                    }));
                                 }
                             }
 
@@ -137,8 +123,17 @@ public class ResourcePackHttpServer {
     }
 
     public void addConnection(final UUID uuid, final UserConnection connection, final String cacheKey) {
+        final ConnectionInfo connInfo = new ConnectionInfo(connection, cacheKey, new CompletableFuture<>());
+        final JavaPackCache cache = ViaBedrock.getJavaPackCache();
+        try {
+            if (cache.has(cacheKey)) {
+                connInfo.pack().complete(new CachedPack(cache.getFile(cacheKey), cache.getHash(cacheKey), null));
+            }
+        } catch (Throwable e) {
+            ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Failed to read java pack cache", e);
+        }
         synchronized (this.connections) {
-            this.connections.put(uuid, new ConnectionInfo(connection, cacheKey));
+            this.connections.put(uuid, connInfo);
         }
 
         connection.getChannel().closeFuture().addListener(future -> {
@@ -148,10 +143,57 @@ public class ResourcePackHttpServer {
         });
     }
 
+    /**
+     * Starts converting the resource packs of the given connection in the background, so that they are ready when the client requests them.
+     * Connections with the same packs share a single conversion and receive its converter data. Does nothing if the packs haven't finished loading or the client didn't accept them.
+     *
+     * @param connection The connection
+     */
+    public void startConversion(final UserConnection connection) {
+        synchronized (this.connections) {
+            for (ConnectionInfo connInfo : this.connections.values()) {
+                if (connInfo.user() != connection || connInfo.pack().isDone()) continue;
+
+                final ResourcePacksStorage resourcePacksStorage = connection.get(ResourcePacksStorage.class);
+                if (resourcePacksStorage == null || !resourcePacksStorage.hasFinishedLoading() || !resourcePacksStorage.isJavaClientWaitingForPack()) continue;
+
+                final CompletableFuture<CachedPack> conversion;
+                boolean started = false;
+                synchronized (this.conversions) {
+                    CompletableFuture<CachedPack> existing = this.conversions.get(connInfo.cacheKey());
+                    if (existing == null) {
+                        existing = CompletableFuture.supplyAsync(() -> this.convert(connInfo.cacheKey(), resourcePacksStorage), this.conversionExecutor);
+                        this.conversions.put(connInfo.cacheKey(), existing);
+                        started = true;
+                    }
+                    conversion = existing;
+                }
+                if (started) {
+                    conversion.whenComplete((pack, e) -> {
+                        synchronized (this.conversions) {
+                            this.conversions.remove(connInfo.cacheKey(), conversion);
+                        }
+                    });
+                }
+                conversion.whenComplete((pack, e) -> {
+                    if (e != null) {
+                        connInfo.pack().completeExceptionally(e);
+                    } else {
+                        if (pack.converterData() != null) { // The conversion wrote its data into the storage of the connection which started it
+                            resourcePacksStorage.getConverterData().putAll(pack.converterData());
+                        }
+                        connInfo.pack().complete(pack);
+                    }
+                });
+            }
+        }
+    }
+
     public void stop() {
         if (this.channelFuture != null) {
             this.channelFuture.channel().close();
         }
+        this.conversionExecutor.shutdownNow();
     }
 
     public String getUrl() {
@@ -168,4 +210,101 @@ public class ResourcePackHttpServer {
         return this.channelFuture.channel();
     }
 
+    private CachedPack convert(final String cacheKey, final ResourcePacksStorage resourcePacksStorage) {
+        final JavaPackCache cache = ViaBedrock.getJavaPackCache();
+        try {
+            Map<String, Object> converterData = null;
+            if (!cache.has(cacheKey)) {
+                final long start = System.nanoTime();
+                final ResourcePack.Content javaContent = ResourcePackRewriter.bedrockToJava(resourcePacksStorage);
+                // Always include bedrock mcpack files for VBU compatibility,
+                // regardless of whether VBU channel is registered at this point
+                for (ResourcePack pack : resourcePacksStorage.getPacks()) {
+                    final String mcpackPath = "bedrock/" + pack.packId() + ".mcpack";
+                    if (javaContent.get(mcpackPath) == null) {
+                        javaContent.put(mcpackPath, pack.content().toZip());
+                    }
+                }
+                cache.put(cacheKey, javaContent);
+                converterData = sharedConverterData(resourcePacksStorage);
+                final long end = System.nanoTime();
+                ViaBedrock.getPlatform().getLogger().log(Level.INFO, "Converted packs in " + ((end - start) / 1_000_000L) + "ms");
+            }
+            return new CachedPack(cache.getFile(cacheKey), cache.getHash(cacheKey), converterData);
+        } catch (Throwable e) {
+            ViaBedrock.getPlatform().getLogger().log(Level.SEVERE, "Failed to convert resource packs", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Collects the converter data which only the conversion produces. Runtime data like the pack manager and entity bones is created per connection when the pack stack is set.
+     */
+    private static Map<String, Object> sharedConverterData(final ResourcePacksStorage resourcePacksStorage) {
+        final Map<String, Object> converterData = new HashMap<>();
+        for (Map.Entry<String, Object> entry : resourcePacksStorage.getConverterData().entrySet()) {
+            if (entry.getKey().startsWith("ca_") || entry.getKey().equals(CustomSoundResourceRewriter.CUSTOM_SOUNDS_KEY)) {
+                converterData.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(converterData);
+    }
+
+    private void sendPack(final ChannelHandlerContext ctx, final HttpRequest request, final CachedPack pack) throws IOException {
+        final String etag = '"' + pack.hash() + '"';
+        if (etag.equals(request.headers().get(HttpHeaderNames.IF_NONE_MATCH))) {
+            final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+            response.headers().set(HttpHeaderNames.ETAG, etag);
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+
+        final RandomAccessFile file = new RandomAccessFile(pack.file(), "r");
+        final long fileLength = file.length();
+        long start = 0;
+        long end = fileLength - 1;
+        HttpResponseStatus status = HttpResponseStatus.OK;
+        final String range = request.headers().get(HttpHeaderNames.RANGE);
+        if (range != null && range.startsWith("bytes=") && !range.contains(",")) { // Multiple ranges are answered with the whole file
+            final String[] bounds = range.substring(6).trim().split("-", 2);
+            try {
+                if (bounds[0].isEmpty()) { // Suffix range
+                    start = Math.max(0, fileLength - Long.parseLong(bounds[1]));
+                } else {
+                    start = Long.parseLong(bounds[0]);
+                    if (bounds.length > 1 && !bounds[1].isEmpty()) {
+                        end = Math.min(end, Long.parseLong(bounds[1]));
+                    }
+                }
+                status = HttpResponseStatus.PARTIAL_CONTENT;
+            } catch (NumberFormatException ignored) {
+                start = 0;
+            }
+            if (status == HttpResponseStatus.PARTIAL_CONTENT && (start > end || start >= fileLength)) {
+                file.close();
+                final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes */" + fileLength);
+                response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+                response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+        }
+        final long length = end - start + 1;
+
+        final DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream");
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, length);
+        response.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+        response.headers().set(HttpHeaderNames.ETAG, etag);
+        if (status == HttpResponseStatus.PARTIAL_CONTENT) {
+            response.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength);
+        }
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        ctx.write(response);
+        ctx.write(new DefaultFileRegion(file.getChannel(), start, length)); // Zero copy transfer, closes the file once written
+        ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener(ChannelFutureListener.CLOSE);
+    }
+
 }
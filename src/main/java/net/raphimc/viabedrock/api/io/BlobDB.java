@@ -21,117 +21,192 @@ import com.viaversion.viaversion.api.Via;
 import net.raphimc.viabedrock.api.util.LZ4;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+/**
+ * Log structured blob store. Blobs are appended to size limited segment files and located through an in memory index.<br>
+ * Every index change is appended to a journal, which is periodically folded into an index checkpoint. This makes restarts fast and keeps the index consistent if the process crashes.<br>
+ * If a size limit is set, the least recently used blobs are evicted. Segments which mostly contain evicted data are compacted in the background.<br>
+ * Reads don't take any locks and use positional reads, so they can run concurrently from any thread. All writes are done by a single writer thread.
+ */
 public class BlobDB implements Closeable {
 
     private static final byte[] MAGIC = new byte[]{'B', 'D', 'B'};
-    private static final int VERSION = 1;
+    private static final int VERSION = 2;
+    private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("data-(\\d+)\\.bdbd");
+    private static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long CHECKPOINT_JOURNAL_SIZE = 4 * 1024 * 1024;
+    private static final float COMPACTION_LIVE_RATIO = 0.5F;
+    private static final float EVICTION_TARGET_RATIO = 0.9F; // Evict a bit more than needed to not sort the index on every write
+    private static final int MAX_READ_ATTEMPTS = 3;
+    private static final byte JOURNAL_PUT = 1;
+    private static final byte JOURNAL_REMOVE = 2;
+    private static final int JOURNAL_PUT_SIZE = Byte.BYTES + Long.BYTES + Integer.BYTES * 3;
+    private static final int JOURNAL_REMOVE_SIZE = Byte.BYTES + Long.BYTES;
 
+    private final File directory;
     private final File indexFile;
-    private final RandomAccessFile dataFile;
-    private final Map<Long, IndexEntry> index = new LinkedHashMap<>();
+    private final File journalFile;
+    private final long maxSize;
+    private final Map<Long, IndexEntry> index = new ConcurrentHashMap<>();
+    private final Set<Long> pinnedKeys = ConcurrentHashMap.newKeySet();
     private final Map<Long, byte[]> pendingWrites = new ConcurrentHashMap<>();
+    private final BlockingQueue<Long> writeQueue = new LinkedBlockingQueue<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
     private final Thread writeThread;
-    private boolean indexDirty = false;
-    private long dataOffset = 0;
+
+    // Only accessed while holding the write lock
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private DataOutputStream journal;
+    private long journalSize;
+    private Segment activeSegment;
+
+    private volatile long liveBytes;
+    private volatile long accessClock; // Coarse LRU clock, advanced by the writer thread
 
     public BlobDB(final File directory) throws IOException {
+        this(directory, 0);
+    }
+
+    /**
+     * @param directory The directory to store the data in
+     * @param maxSize   The maximum amount of compressed bytes to store. 0 means unlimited
+     */
+    public BlobDB(final File directory, final long maxSize) throws IOException {
         directory.mkdirs();
+        this.directory = directory;
         this.indexFile = new File(directory, "index.bdbi");
-        this.dataFile = new RandomAccessFile(new File(directory, "data.bdbd"), "rw");
+        this.journalFile = new File(directory, "index.bdbj");
+        this.maxSize = maxSize;
         try {
             this.load();
         } catch (Throwable e) {
-            this.dataFile.close();
+            this.closeFiles();
             throw e;
         }
         this.writeThread = new Thread(() -> {
+            final List<Long> keys = new ArrayList<>();
             while (!Thread.interrupted()) {
                 try {
-                    Thread.sleep(1000);
-                    final Set<Long> writtenKeys = new HashSet<>();
-                    for (Map.Entry<Long, byte[]> entry : this.pendingWrites.entrySet()) {
-                        try {
-                            this.putNow(entry.getKey(), entry.getValue());
-                            writtenKeys.add(entry.getKey());
-                        } catch (Throwable e) {
-                            Via.getPlatform().getLogger().log(Level.SEVERE, "Failed to write pending blob", e);
-                            break;
+                    final Long firstKey = this.writeQueue.poll(1, TimeUnit.SECONDS);
+                    this.accessClock++;
+                    if (firstKey != null) {
+                        keys.add(firstKey);
+                        this.writeQueue.drainTo(keys);
+                        this.writePending(keys);
+                        keys.clear();
+                    }
+
+                    this.writeLock.lock();
+                    try {
+                        this.evict();
+                        if (this.journalSize >= CHECKPOINT_JOURNAL_SIZE) {
+                            this.checkpoint();
                         }
+                    } finally {
+                        this.writeLock.unlock();
                     }
-                    writtenKeys.forEach(this.pendingWrites::remove);
+                    this.compact();
                 } catch (InterruptedException e) {
                     break;
+                } catch (Throwable e) {
+                    Via.getPlatform().getLogger().log(Level.SEVERE, "Failed to maintain BlobDB", e);
                 }
             }
         }, "BlobDB Write Thread");
+        this.writeThread.setDaemon(true);
         this.writeThread.start();
     }
 
-    public synchronized void save() throws IOException {
-        if (!this.indexDirty) return;
-
+    public void save() throws IOException {
         this.waitForWrites();
-        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.indexFile)))) {
-            dos.write(MAGIC);
-            dos.writeInt(VERSION);
-            for (final Map.Entry<Long, IndexEntry> entry : this.index.entrySet()) {
-                dos.writeLong(entry.getKey());
-                dos.writeInt(entry.getValue().length);
-            }
+        this.writeLock.lock();
+        try {
+            this.checkpoint();
+        } finally {
+            this.writeLock.unlock();
         }
-        this.indexDirty = false;
     }
 
-    public synchronized boolean contains(final long key) {
+    public boolean contains(final long key) {
         if (this.pendingWrites.containsKey(key)) {
             return true;
         }
         return this.index.containsKey(key);
     }
 
-    public synchronized byte[] get(final long key) throws IOException {
-        final byte[] pending = this.pendingWrites.get(key);
-        if (pending != null) {
-            return pending;
-        }
+    public byte[] get(final long key) throws IOException {
+        for (int i = 0; i < MAX_READ_ATTEMPTS; i++) {
+            final byte[] pending = this.pendingWrites.get(key);
+            if (pending != null) {
+                return pending;
+            }
 
-        final IndexEntry entry = this.index.get(key);
-        if (entry == null) {
-            return null;
+            final IndexEntry entry = this.index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            entry.lastAccess = this.accessClock;
+            try {
+                return LZ4.decompress(entry.segment.read(entry.offset, entry.length));
+            } catch (ClosedChannelException e) { // Segment got compacted in the meantime, look up the new location
+                if (i == MAX_READ_ATTEMPTS - 1) {
+                    throw e;
+                }
+            }
         }
-        this.dataFile.seek(entry.offset);
-        final byte[] value = new byte[entry.length];
-        this.dataFile.readFully(value);
-        return LZ4.decompress(value);
+        return null;
     }
 
-    public synchronized void queuePut(final long key, final byte[] value) {
+    public void queuePut(final long key, final byte[] value) {
         if (this.index.containsKey(key)) {
             throw new IllegalArgumentException("Key already exists: " + key);
         }
 
-        this.pendingWrites.put(key, value);
+        if (this.pendingWrites.putIfAbsent(key, value) == null) {
+            this.writeQueue.add(key);
+        }
     }
 
-    public synchronized void putNow(final long key, final byte[] value) throws IOException {
-        if (this.index.containsKey(key)) {
-            throw new IllegalArgumentException("Key already exists: " + key);
+    public void putNow(final long key, final byte[] value) throws IOException {
+        this.writeLock.lock();
+        try {
+            if (this.index.containsKey(key)) {
+                throw new IllegalArgumentException("Key already exists: " + key);
+            }
+
+            this.append(key, LZ4.compress(value));
+            this.evict();
+        } finally {
+            this.writeLock.unlock();
         }
+    }
 
-        final byte[] compressedValue = LZ4.compress(value);
-        this.dataFile.seek(this.dataOffset);
-        this.dataFile.write(compressedValue);
-        this.index.put(key, new IndexEntry(this.dataOffset, compressedValue.length));
-        this.dataOffset += compressedValue.length;
-        this.indexDirty = true;
+    /**
+     * Excludes the given key from eviction.
+     *
+     * @param key The key
+     */
+    public void pin(final long key) {
+        this.pinnedKeys.add(key);
     }
 
     public void waitForWrites() {
-        while (!this.pendingWrites.isEmpty()) {
+        while (!this.pendingWrites.isEmpty() && this.writeThread.isAlive()) {
             try {
                 Thread.sleep(50);
             } catch (InterruptedException e) {
@@ -140,39 +215,389 @@ public class BlobDB implements Closeable {
         }
     }
 
+    /**
+     * @return The amount of compressed bytes of all stored blobs
+     */
+    public long getSize() {
+        return this.liveBytes;
+    }
+
+    /**
+     * @return The amount of bytes used by all segment files, including evicted blobs which weren't compacted yet
+     */
+    public long getDiskSize() {
+        this.writeLock.lock();
+        try {
+            long size = 0;
+            for (Segment segment : this.segments.values()) {
+                size += segment.length;
+            }
+            return size;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of stored blobs
+     */
+    public int getBlobCount() {
+        return this.index.size();
+    }
+
     @Override
-    public synchronized void close() throws IOException {
+    public void close() throws IOException {
         this.writeThread.interrupt();
-        this.dataFile.close();
+        try {
+            this.writeThread.join(5000);
+        } catch (InterruptedException ignored) {
+        }
+        this.writeLock.lock();
+        try {
+            this.closeFiles();
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    private void writePending(final List<Long> keys) {
+        this.writeLock.lock();
+        try {
+            for (long key : keys) {
+                final byte[] value = this.pendingWrites.get(key);
+                if (value == null) continue;
+                try {
+                    if (!this.index.containsKey(key)) {
+                        this.append(key, LZ4.compress(value));
+                    }
+                    this.pendingWrites.remove(key); // Only remove after the blob is readable from the index
+                } catch (Throwable e) {
+                    Via.getPlatform().getLogger().log(Level.SEVERE, "Failed to write pending blob", e);
+                    this.writeQueue.add(key); // Retry later
+                    break;
+                }
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
     }
 
     private void load() throws IOException {
-        if (!this.indexFile.exists()) return;
+        final File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final Matcher matcher = SEGMENT_FILE_PATTERN.matcher(file.getName());
+                if (matcher.matches()) {
+                    final int id = Integer.parseInt(matcher.group(1));
+                    this.segments.put(id, new Segment(id, file));
+                }
+            }
+        }
 
-        long availableBytes = this.indexFile.length();
-        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)))) {
-            final byte[] magic = new byte[MAGIC.length];
-            dis.readFully(magic);
-            if (!Arrays.equals(magic, MAGIC)) {
-                throw new IOException("Wrong magic: " + Arrays.toString(magic));
+        if (this.indexFile.exists()) {
+            long availableBytes = this.indexFile.length();
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)))) {
+                final byte[] magic = new byte[MAGIC.length];
+                dis.readFully(magic);
+                if (!Arrays.equals(magic, MAGIC)) {
+                    throw new IOException("Wrong magic: " + Arrays.toString(magic));
+                }
+                availableBytes -= magic.length;
+                final int version = dis.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Wrong version: " + version);
+                }
+                availableBytes -= Integer.BYTES;
+                while (availableBytes >= Long.BYTES + Integer.BYTES * 3) {
+                    this.loadEntry(dis.readLong(), dis.readInt(), dis.readInt(), dis.readInt());
+                    availableBytes -= Long.BYTES + Integer.BYTES * 3;
+                }
             }
-            availableBytes -= magic.length;
-            final int version = dis.readInt();
-            if (version != VERSION) {
-                throw new IOException("Wrong version: " + version);
+        }
+
+        long validJournalSize = 0;
+        if (this.journalFile.exists()) {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(this.journalFile)))) {
+                while (true) {
+                    final int type = dis.read();
+                    if (type == -1) break;
+                    if (type == JOURNAL_PUT) {
+                        this.loadEntry(dis.readLong(), dis.readInt(), dis.readInt(), dis.readInt());
+                        validJournalSize += JOURNAL_PUT_SIZE;
+                    } else if (type == JOURNAL_REMOVE) {
+                        this.index.remove(dis.readLong());
+                        validJournalSize += JOURNAL_REMOVE_SIZE;
+                    } else {
+                        Via.getPlatform().getLogger().log(Level.WARNING, "BlobDB journal is corrupted after " + validJournalSize + " bytes, discarding the rest");
+                        break;
+                    }
+                }
+            } catch (EOFException ignored) { // Partially written entry at the end of the journal
             }
-            availableBytes -= Integer.BYTES;
-            while (availableBytes > 0) {
-                final long key = dis.readLong();
-                final int length = dis.readInt();
-                availableBytes -= Long.BYTES + Integer.BYTES;
-                this.index.put(key, new IndexEntry(this.dataOffset, length));
-                this.dataOffset += length;
+        }
+
+        long liveBytes = 0;
+        for (IndexEntry entry : this.index.values()) {
+            entry.segment.liveBytes += entry.length;
+            liveBytes += entry.length;
+        }
+        this.liveBytes = liveBytes;
+        for (Iterator<Segment> it = this.segments.values().iterator(); it.hasNext(); ) {
+            final Segment segment = it.next();
+            if (segment.liveBytes == 0) { // Data which was written without reaching the journal
+                segment.delete();
+                it.remove();
             }
         }
+        if (!this.segments.isEmpty() && this.segments.lastEntry().getValue().length < MAX_SEGMENT_SIZE) {
+            this.activeSegment = this.segments.lastEntry().getValue();
+        }
+
+        try (RandomAccessFile journalFile = new RandomAccessFile(this.journalFile, "rw")) {
+            journalFile.setLength(validJournalSize); // Cut off partially written entries
+        }
+        this.journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.journalFile, true)));
+        this.journalSize = validJournalSize;
+    }
+
+    private void loadEntry(final long key, final int segmentId, final int offset, final int length) {
+        final Segment segment = this.segments.get(segmentId);
+        if (segment == null || offset < 0 || length < 0 || (long) offset + length > segment.length) {
+            // Segment was compacted or the data didn't make it to disk
+            this.index.remove(key);
+            return;
+        }
+        this.index.put(key, new IndexEntry(segment, offset, length, this.accessClock++)); // The replay clock sets the LRU order
     }
 
-    private record IndexEntry(long offset, int length) {
+    private void append(final long key, final byte[] data) throws IOException {
+        final IndexEntry entry = this.write(data, this.accessClock);
+        this.index.put(key, entry);
+        this.liveBytes += data.length;
+        this.journalPut(key, entry);
+    }
+
+    private IndexEntry write(final byte[] data, final long lastAccess) throws IOException {
+        if (this.activeSegment == null || this.activeSegment.length + data.length > MAX_SEGMENT_SIZE) {
+            final int id = this.segments.isEmpty() ? 0 : this.segments.lastKey() + 1;
+            this.activeSegment = new Segment(id, new File(this.directory, "data-" + id + ".bdbd"));
+            this.segments.put(id, this.activeSegment);
+        }
+
+        final Segment segment = this.activeSegment;
+        segment.write(segment.length, data);
+        final IndexEntry entry = new IndexEntry(segment, (int) segment.length, data.length, lastAccess);
+        segment.length += data.length;
+        segment.liveBytes += data.length;
+        return entry;
+    }
+
+    private void journalPut(final long key, final IndexEntry entry) throws IOException {
+        this.journal.writeByte(JOURNAL_PUT);
+        this.journal.writeLong(key);
+        this.journal.writeInt(entry.segment.id);
+        this.journal.writeInt(entry.offset);
+        this.journal.writeInt(entry.length);
+        this.journal.flush();
+        this.journalSize += JOURNAL_PUT_SIZE;
+    }
+
+    private void remove(final long key, final IndexEntry entry) throws IOException {
+        if (!this.index.remove(key, entry)) return;
+
+        entry.segment.liveBytes -= entry.length;
+        this.liveBytes -= entry.length;
+        this.journal.writeByte(JOURNAL_REMOVE);
+        this.journal.writeLong(key);
+        this.journal.flush();
+        this.journalSize += JOURNAL_REMOVE_SIZE;
+    }
+
+    private void evict() throws IOException {
+        if (this.maxSize <= 0 || this.liveBytes <= this.maxSize) return;
+
+        final List<Map.Entry<Long, IndexEntry>> entries = new ArrayList<>(this.index.size());
+        for (Map.Entry<Long, IndexEntry> entry : this.index.entrySet()) {
+            if (!this.pinnedKeys.contains(entry.getKey())) {
+                entries.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+
+        final long targetSize = (long) (this.maxSize * EVICTION_TARGET_RATIO);
+        for (Map.Entry<Long, IndexEntry> entry : entries) { // Least recently used first
+            if (this.liveBytes <= targetSize) break;
+            this.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Moves the remaining blobs of one mostly evicted segment into the active segment and deletes it afterwards.
+     */
+    private void compact() throws IOException {
+        final Segment segment;
+        final List<Map.Entry<Long, IndexEntry>> entries = new ArrayList<>();
+        this.writeLock.lock();
+        try {
+            segment = this.segments.values().stream()
+                    .filter(s -> s != this.activeSegment && s.liveBytes < s.length * COMPACTION_LIVE_RATIO)
+                    .findFirst()
+                    .orElse(null);
+            if (segment == null) return;
+
+            for (Map.Entry<Long, IndexEntry> entry : this.index.entrySet()) {
+                if (entry.getValue().segment == segment) {
+                    entries.add(Map.entry(entry.getKey(), entry.getValue()));
+                }
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+
+        for (Map.Entry<Long, IndexEntry> entry : entries) { // Move one blob at a time to not block putNow callers for too long
+            this.writeLock.lock();
+            try {
+                final IndexEntry oldEntry = entry.getValue();
+                final IndexEntry newEntry = this.write(segment.read(oldEntry.offset, oldEntry.length), oldEntry.lastAccess);
+                if (this.index.replace(entry.getKey(), oldEntry, newEntry)) {
+                    segment.liveBytes -= oldEntry.length;
+                    this.journalPut(entry.getKey(), newEntry);
+                } else { // Evicted in the meantime
+                    newEntry.segment.liveBytes -= newEntry.length;
+                }
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        this.writeLock.lock();
+        try {
+            if (segment.liveBytes == 0) {
+                this.segments.remove(segment.id);
+                segment.delete();
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the whole index to the checkpoint file and clears the journal.
+     */
+    private void checkpoint() throws IOException {
+        if (this.journalSize == 0) return;
+
+        for (Segment segment : this.segments.values()) {
+            segment.channel().force(false);
+        }
+        final List<Map.Entry<Long, IndexEntry>> entries = new ArrayList<>(this.index.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess)); // Persist the LRU order
+        final File tempIndexFile = new File(this.directory, this.indexFile.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tempIndexFile); DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            dos.write(MAGIC);
+            dos.writeInt(VERSION);
+            for (final Map.Entry<Long, IndexEntry> entry : entries) {
+                dos.writeLong(entry.getKey());
+                dos.writeInt(entry.getValue().segment.id);
+                dos.writeInt(entry.getValue().offset);
+                dos.writeInt(entry.getValue().length);
+            }
+            dos.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tempIndexFile.toPath(), this.indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        this.journal.close();
+        this.journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.journalFile, false)));
+        this.journalSize = 0;
+    }
+
+    private void closeFiles() throws IOException {
+        if (this.journal != null) {
+            this.journal.close();
+        }
+        for (Segment segment : this.segments.values()) {
+            segment.close();
+        }
+    }
+
+    private static class IndexEntry {
+
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private volatile long lastAccess;
+
+        private IndexEntry(final Segment segment, final int offset, final int length, final long lastAccess) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.lastAccess = lastAccess;
+        }
+
+    }
+
+    private static class Segment {
+
+        private final int id;
+        private final File file;
+        private volatile FileChannel channel;
+        private volatile boolean deleted;
+        private long length; // Only accessed by the writer
+        private long liveBytes; // Only accessed by the writer
+
+        private Segment(final int id, final File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.length = this.channel.size();
+        }
+
+        private byte[] read(final long position, final int length) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            final FileChannel channel = this.channel();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            return buffer.array();
+        }
+
+        private void write(final long position, final byte[] data) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            final FileChannel channel = this.channel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+
+        /**
+         * Returns the channel of this segment. A channel gets closed if a thread is interrupted during I/O, so it is reopened if that happened.
+         */
+        private FileChannel channel() throws IOException {
+            FileChannel channel = this.channel;
+            if (channel.isOpen() || this.deleted) {
+                return channel;
+            }
+            synchronized (this) {
+                if (!this.channel.isOpen() && !this.deleted) {
+                    this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                return this.channel;
+            }
+        }
+
+        private void delete() throws IOException {
+            this.deleted = true;
+            this.close();
+            Files.deleteIfExists(this.file.toPath());
+        }
+
+        private synchronized void close() throws IOException {
+            this.channel.close();
+        }
+
     }
 
 }
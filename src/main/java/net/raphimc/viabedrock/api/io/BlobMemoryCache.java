@@ -0,0 +1,124 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.api.io;
+
+import com.viaversion.viaversion.libs.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe in memory LRU cache for blobs which is bounded by the total byte size of the cached blobs.
+ */
+public class BlobMemoryCache {
+
+    private static final int ENTRY_OVERHEAD = 64; // Approximate size of the map entry and array header
+
+    private final long maxSize;
+    private final Long2ObjectLinkedOpenHashMap<byte[]> blobs = new Long2ObjectLinkedOpenHashMap<>();
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize The maximum amount of bytes to cache
+     */
+    public BlobMemoryCache(final long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized boolean contains(final long key) {
+        return this.blobs.containsKey(key);
+    }
+
+    /**
+     * Returns the cached blob and marks it as most recently used.
+     *
+     * @param key The key
+     * @return The blob or null if it isn't cached
+     */
+    public byte[] get(final long key) {
+        final byte[] blob;
+        synchronized (this) {
+            blob = this.blobs.getAndMoveToLast(key);
+        }
+        if (blob != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return blob;
+    }
+
+    public void put(final long key, final byte[] blob) {
+        final long weight = weight(blob);
+        if (weight > this.maxSize) return;
+
+        int evictedCount = 0;
+        synchronized (this) {
+            final byte[] previous = this.blobs.putAndMoveToLast(key, blob);
+            if (previous != null) {
+                this.size -= weight(previous);
+            }
+            this.size += weight;
+            while (this.size > this.maxSize) {
+                this.size -= weight(this.blobs.removeFirst());
+                evictedCount++;
+            }
+        }
+        this.evictions.add(evictedCount);
+    }
+
+    public synchronized void clear() {
+        this.blobs.clear();
+        this.size = 0;
+    }
+
+    /**
+     * @return The amount of bytes used by the cached blobs
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    public long getMaxSize() {
+        return this.maxSize;
+    }
+
+    public synchronized int getBlobCount() {
+        return this.blobs.size();
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    private static long weight(final byte[] blob) {
+        return blob.length + ENTRY_OVERHEAD;
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.api.io.compression;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.util.zip.Deflater;
+
+/**
+ * Per connection compression policy which learns which packet sizes don't shrink when compressed and skips compressing them.<br>
+ * Sizes are grouped into power of two buckets. Skipped buckets are probed again periodically, so the policy adapts if the traffic changes.<br>
+ * Not thread safe, must only be used from the event loop of the connection.
+ */
+public class AdaptiveCompressionPolicy {
+
+    private static final int BUCKET_COUNT = Integer.SIZE;
+    private static final int RATIO_SCALE = 1024;
+    private static final int INCOMPRESSIBLE_RATIO = RATIO_SCALE * 95 / 100;
+    private static final int PROBE_INTERVAL = 64;
+    private static final int SATURATED_PENDING_TASKS = 128;
+
+    private final int[] ratios = new int[BUCKET_COUNT]; // Moving average of compressed size / uncompressed size (0 = no samples yet)
+    private final int[] skipCounters = new int[BUCKET_COUNT];
+
+    private long compressedPackets;
+    private long skippedPackets;
+    private long incompressiblePackets;
+    private long fastLevelPackets;
+    private long uncompressedBytes;
+    private long compressedBytes;
+
+    /**
+     * @param size The uncompressed size of the packet
+     * @return true if the packet should be compressed, false if it most likely won't shrink
+     */
+    public boolean shouldCompress(final int size) {
+        final int bucket = bucket(size);
+        if (this.ratios[bucket] < INCOMPRESSIBLE_RATIO) {
+            return true;
+        }
+        if (++this.skipCounters[bucket] >= PROBE_INTERVAL) {
+            this.skipCounters[bucket] = 0;
+            return true;
+        }
+        this.skippedPackets++;
+        return false;
+    }
+
+    /**
+     * @param executor The event loop the packet is compressed on
+     * @return The deflate level to use. A faster level is chosen if the event loop has a backlog of tasks
+     */
+    public int getCompressionLevel(final EventExecutor executor) {
+        if (executor instanceof SingleThreadEventExecutor singleThreadEventExecutor && executor.inEventLoop() && singleThreadEventExecutor.pendingTasks() >= SATURATED_PENDING_TASKS) {
+            this.fastLevelPackets++;
+            return Deflater.BEST_SPEED;
+        }
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Records the outcome of compressing a packet.
+     *
+     * @param size           The uncompressed size of the packet
+     * @param compressedSize The compressed size of the packet
+     */
+    public void recordResult(final int size, final int compressedSize) {
+        final int bucket = bucket(size);
+        final int ratio = (int) Math.min((long) compressedSize * RATIO_SCALE / Math.max(size, 1), RATIO_SCALE * 2);
+        this.ratios[bucket] = this.ratios[bucket] == 0 ? Math.max(ratio, 1) : Math.max((this.ratios[bucket] * 7 + ratio) / 8, 1);
+
+        this.compressedPackets++;
+        this.uncompressedBytes += size;
+        if (compressedSize < size) {
+            this.compressedBytes += compressedSize;
+        } else {
+            this.incompressiblePackets++;
+            this.compressedBytes += size;
+        }
+    }
+
+    /**
+     * @return The amount of packets which were compressed (including ones which didn't shrink)
+     */
+    public long getCompressedPackets() {
+        return this.compressedPackets;
+    }
+
+    /**
+     * @return The amount of packets which were sent uncompressed because their size bucket usually doesn't shrink
+     */
+    public long getSkippedPackets() {
+        return this.skippedPackets;
+    }
+
+    /**
+     * @return The amount of packets which were compressed, but sent uncompressed because they didn't shrink
+     */
+    public long getIncompressiblePackets() {
+        return this.incompressiblePackets;
+    }
+
+    /**
+     * @return The amount of packets which were compressed with a faster level because the event loop was saturated
+     */
+    public long getFastLevelPackets() {
+        return this.fastLevelPackets;
+    }
+
+    /**
+     * @return The total uncompressed size of all compressed packets
+     */
+    public long getUncompressedBytes() {
+        return this.uncompressedBytes;
+    }
+
+    /**
+     * @return The total size of all compressed packets as they were sent
+     */
+    public long getCompressedBytes() {
+        return this.compressedBytes;
+    }
+
+    private static int bucket(final int size) {
+        return BUCKET_COUNT - 1 - Integer.numberOfLeadingZeros(Math.max(size, 1));
+    }
+
+}
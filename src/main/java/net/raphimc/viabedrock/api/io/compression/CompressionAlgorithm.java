@@ -18,14 +18,43 @@
 package net.raphimc.viabedrock.api.io.compression;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.DecompressionException;
 import net.raphimc.viabedrock.protocol.data.enums.bedrock.generated.PacketCompressionAlgorithm;
 
 public interface CompressionAlgorithm {
 
     void compress(final ByteBuf in, final ByteBuf out) throws Exception;
 
+    /**
+     * Compresses the given data with the given compression level. Algorithms without compression levels ignore the level.
+     *
+     * @param in    The uncompressed data
+     * @param out   The buffer to write the compressed data to
+     * @param level The compression level (See {@link java.util.zip.Deflater})
+     * @throws Exception If the data could not be compressed
+     */
+    default void compress(final ByteBuf in, final ByteBuf out, final int level) throws Exception {
+        this.compress(in, out);
+    }
+
     void decompress(final ByteBuf in, final ByteBuf out) throws Exception;
 
+    /**
+     * Decompresses the given data and fails if the decompressed data would exceed the given size.
+     *
+     * @param in      The compressed data
+     * @param out     The buffer to write the decompressed data to
+     * @param maxSize The maximum size of the decompressed data in bytes (0 = unlimited)
+     * @throws Exception If the data is invalid or exceeds the maximum size
+     */
+    default void decompress(final ByteBuf in, final ByteBuf out, final int maxSize) throws Exception {
+        final int startIndex = out.writerIndex();
+        this.decompress(in, out);
+        if (maxSize > 0 && out.writerIndex() - startIndex > maxSize) {
+            throw new DecompressionException("Decompressed data exceeds the maximum size of " + maxSize + " bytes");
+        }
+    }
+
     default void end() {
     }
 
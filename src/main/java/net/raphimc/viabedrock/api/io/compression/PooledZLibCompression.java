@@ -0,0 +1,83 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.api.io.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+import net.raphimc.viabedrock.protocol.data.enums.bedrock.generated.PacketCompressionAlgorithm;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * ZLib compression which shares one deflater and inflater per thread instead of allocating them per connection.<br>
+ * As all connections of an event loop are handled by the same thread, this bounds the native zlib state to the number of event loops.
+ */
+public class PooledZLibCompression implements CompressionAlgorithm {
+
+    public static final PooledZLibCompression INSTANCE = new PooledZLibCompression();
+
+    private static final FastThreadLocal<Deflater> DEFLATER = new FastThreadLocal<>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+
+        @Override
+        protected void onRemoval(final Deflater value) {
+            value.end();
+        }
+    };
+    private static final FastThreadLocal<Inflater> INFLATER = new FastThreadLocal<>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+
+        @Override
+        protected void onRemoval(final Inflater value) {
+            value.end();
+        }
+    };
+
+    @Override
+    public void compress(final ByteBuf in, final ByteBuf out) {
+        this.compress(in, out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Override
+    public void compress(final ByteBuf in, final ByteBuf out, final int level) {
+        ZLibCompression.deflate(DEFLATER.get(), in, out, level);
+    }
+
+    @Override
+    public void decompress(final ByteBuf in, final ByteBuf out) throws Exception {
+        this.decompress(in, out, 0);
+    }
+
+    @Override
+    public void decompress(final ByteBuf in, final ByteBuf out, final int maxSize) throws Exception {
+        ZLibCompression.inflate(INFLATER.get(), in, out, maxSize);
+    }
+
+    @Override
+    public PacketCompressionAlgorithm getAlgorithm() {
+        return PacketCompressionAlgorithm.ZLib;
+    }
+
+}
@@ -17,13 +17,15 @@
  */
 package net.raphimc.viabedrock.api.io.compression;
 
+import net.raphimc.viabedrock.ViaBedrock;
 import net.raphimc.viabedrock.protocol.data.enums.bedrock.generated.PacketCompressionAlgorithm;
 
 public class ProtocolCompression {
 
     private final CompressionAlgorithm preferredCompressionAlgorithm;
     private final int threshold;
-    private ZLibCompression zLibCompression;
+    private final AdaptiveCompressionPolicy compressionPolicy = new AdaptiveCompressionPolicy();
+    private CompressionAlgorithm zLibCompression;
     private SnappyCompression snappyCompression;
 
     public ProtocolCompression(final PacketCompressionAlgorithm preferredCompressionAlgorithm, final int threshold) {
@@ -48,12 +50,16 @@ public class ProtocolCompression {
         }
     }
 
+    public AdaptiveCompressionPolicy getCompressionPolicy() {
+        return this.compressionPolicy;
+    }
+
     public CompressionAlgorithm getCompressionAlgorithm(final PacketCompressionAlgorithm algorithm) {
         return switch (algorithm) {
             case None -> NoopCompression.INSTANCE;
             case ZLib -> {
                 if (this.zLibCompression == null) {
-                    this.zLibCompression = new ZLibCompression();
+                    this.zLibCompression = ViaBedrock.getConfig().getZLibBackend().createCompression();
                 }
                 yield this.zLibCompression;
             }
@@ -19,8 +19,10 @@ package net.raphimc.viabedrock.api.io.compression;
 
 import com.viaversion.viaversion.api.type.Types;
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.DecompressionException;
 import io.netty.handler.codec.compression.Snappy;
 import net.raphimc.viabedrock.protocol.data.enums.bedrock.generated.PacketCompressionAlgorithm;
+import net.raphimc.viabedrock.protocol.types.BedrockTypes;
 
 public class SnappyCompression implements CompressionAlgorithm {
 
@@ -55,6 +57,17 @@ public class SnappyCompression implements CompressionAlgorithm {
         this.snappy.reset();
     }
 
+    @Override
+    public void decompress(final ByteBuf in, final ByteBuf out, final int maxSize) {
+        if (maxSize > 0) {
+            final int uncompressedLength = BedrockTypes.UNSIGNED_VAR_INT.readPrimitive(in.duplicate()); // Check the preamble before Snappy allocates the output buffer
+            if (uncompressedLength < 0 || uncompressedLength > maxSize) {
+                throw new DecompressionException("Decompressed data exceeds the maximum size of " + maxSize + " bytes");
+            }
+        }
+        this.decompress(in, out);
+    }
+
     @Override
     public PacketCompressionAlgorithm getAlgorithm() {
         return PacketCompressionAlgorithm.Snappy;
@@ -18,39 +18,38 @@
 package net.raphimc.viabedrock.api.io.compression;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.DecompressionException;
 import net.raphimc.viabedrock.protocol.data.enums.bedrock.generated.PacketCompressionAlgorithm;
 
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
 public class ZLibCompression implements CompressionAlgorithm {
 
+    private static final int MIN_WRITABLE_BYTES = 8192;
+
     private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
     private final Inflater inflater = new Inflater(true);
-    private final byte[] deflateBuffer = new byte[8192];
-    private final byte[] inflateBuffer = new byte[8192];
 
     @Override
     public void compress(final ByteBuf in, final ByteBuf out) {
-        final byte[] uncompressedData = new byte[in.readableBytes()];
-        in.readBytes(uncompressedData);
-        this.deflater.setInput(uncompressedData);
-        this.deflater.finish();
-        while (!this.deflater.finished()) {
-            out.writeBytes(this.deflateBuffer, 0, this.deflater.deflate(this.deflateBuffer));
-        }
-        this.deflater.reset();
+        this.compress(in, out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Override
+    public void compress(final ByteBuf in, final ByteBuf out, final int level) {
+        deflate(this.deflater, in, out, level);
     }
 
     @Override
     public void decompress(final ByteBuf in, final ByteBuf out) throws Exception {
-        final byte[] compressedData = new byte[in.readableBytes()];
-        in.readBytes(compressedData);
-        this.inflater.setInput(compressedData);
-        while (!this.inflater.finished()) {
-            out.writeBytes(this.inflateBuffer, 0, this.inflater.inflate(this.inflateBuffer));
-        }
-        this.inflater.reset();
+        this.decompress(in, out, 0);
+    }
+
+    @Override
+    public void decompress(final ByteBuf in, final ByteBuf out, final int maxSize) throws Exception {
+        inflate(this.inflater, in, out, maxSize);
     }
 
     @Override
@@ -64,4 +63,57 @@ public class ZLibCompression implements CompressionAlgorithm {
         return PacketCompressionAlgorithm.ZLib;
     }
 
+    /**
+     * Deflates the readable bytes of the input buffer directly into the output buffer without copying them to the heap first.
+     *
+     * @param deflater The raw deflater to use. It will be reset afterward
+     * @param in       The uncompressed data
+     * @param out      The buffer to write the compressed data to
+     * @param level    The compression level
+     */
+    static void deflate(final Deflater deflater, final ByteBuf in, final ByteBuf out, final int level) {
+        deflater.setLevel(level);
+        deflater.setInput(in.nioBuffer());
+        deflater.finish();
+        try {
+            while (!deflater.finished()) {
+                out.ensureWritable(MIN_WRITABLE_BYTES);
+                final int written = deflater.deflate(out.nioBuffer(out.writerIndex(), out.writableBytes()));
+                out.writerIndex(out.writerIndex() + written);
+            }
+            in.skipBytes(in.readableBytes());
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * Inflates the readable bytes of the input buffer directly into the output buffer without copying them to the heap first.
+     *
+     * @param inflater The raw inflater to use. It will be reset afterward
+     * @param in       The compressed data
+     * @param out      The buffer to write the decompressed data to
+     * @param maxSize  The maximum size of the decompressed data in bytes (0 = unlimited)
+     * @throws DataFormatException If the compressed data is invalid
+     */
+    static void inflate(final Inflater inflater, final ByteBuf in, final ByteBuf out, final int maxSize) throws DataFormatException {
+        inflater.setInput(in.nioBuffer());
+        try {
+            while (!inflater.finished()) {
+                out.ensureWritable(MIN_WRITABLE_BYTES);
+                final int written = inflater.inflate(out.nioBuffer(out.writerIndex(), out.writableBytes()));
+                if (written == 0 && inflater.needsInput()) {
+                    throw new DecompressionException("Truncated compressed data");
+                }
+                out.writerIndex(out.writerIndex() + written);
+                if (maxSize > 0 && inflater.getBytesWritten() > maxSize) {
+                    throw new DecompressionException("Decompressed data exceeds the maximum size of " + maxSize + " bytes");
+                }
+            }
+            in.skipBytes(in.readableBytes());
+        } finally {
+            inflater.reset();
+        }
+    }
+
 }
@@ -57,6 +57,10 @@ public class ItemDefinitions {
         }
     }
 
+    public ItemDefinitions(final ItemDefinitions itemDefinitions) {
+        this.items.putAll(itemDefinitions.items);
+    }
+
     public void addFromNetworkTag(final String identifier, final CompoundTag tag) {
         final ItemDefinition itemDefinition = new ItemDefinition(identifier);
         if (tag.get("components") instanceof CompoundTag components) {
@@ -39,19 +39,22 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 public class ResourcePack {
 
@@ -78,6 +81,8 @@ public class ResourcePack {
     private boolean[] receivedChunks;
     private byte[] compressedData;
     private Content content;
+    private String registryKey;
+    private String contentHash;
 
     public ResourcePack(final UUID packId, final String version, final byte[] contentKey, final String subPackName, final String contentId, final boolean hasScripts, final boolean isAddonPack, final boolean raytracingCapable, final URL cdnUrl, final long compressedSize, final PackType type) {
         this.packId = packId;
@@ -197,6 +202,13 @@ public class ResourcePack {
         this.compressedData = new byte[length];
     }
 
+    /**
+     * @return The SHA-256 hash of the compressed pack data or null if the pack is not decompressed yet
+     */
+    public String contentHash() {
+        return this.contentHash;
+    }
+
     public Content content() {
         if (!this.isDecompressed()) {
             throw new IllegalStateException("Pack is not decompressed");
@@ -205,12 +217,32 @@ public class ResourcePack {
         return this.content;
     }
 
+    /**
+     * Releases the reference to the shared content held by this pack. Has to be called once the pack is no longer used.
+     */
+    public void releaseContent() {
+        if (this.registryKey != null) {
+            ResourcePackRegistry.getInstance().release(this.registryKey);
+            this.registryKey = null;
+        }
+    }
+
     private void decompressAndDecrypt() throws NoSuchAlgorithmException, IOException, NoSuchPaddingException, InvalidAlgorithmParameterException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
-        if (this.hash != null) {
-            final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
-            final byte[] hash = sha256.digest(this.compressedData);
-            if (!Arrays.equals(hash, this.hash)) {
-                throw new IllegalStateException("Resource pack hash mismatch: " + this.packId);
+        final byte[] hash = MessageDigest.getInstance("SHA-256").digest(this.compressedData);
+        if (this.hash != null && !Arrays.equals(hash, this.hash)) {
+            throw new IllegalStateException("Resource pack hash mismatch: " + this.packId);
+        }
+        this.contentHash = HexFormat.of().formatHex(hash);
+
+        // Packs with known identity are decoded only once and shared between all connections
+        final String registryKey = this.packId != null && this.version != null ? this.packId + "_" + this.version + "_" + this.contentHash + "_" + HexFormat.of().formatHex(this.contentKey) : null;
+        if (registryKey != null) {
+            final Content sharedContent = ResourcePackRegistry.getInstance().acquire(registryKey);
+            if (sharedContent != null) {
+                this.content = sharedContent;
+                this.registryKey = registryKey;
+                this.compressedData = null;
+                return;
             }
         }
 
@@ -228,7 +260,7 @@ public class ResourcePack {
             // Bedrock allows resource packs to contain a single subfolder at the root
             for (String path : new HashSet<>(this.content.content.keySet())) {
                 if (path.contains("/")) {
-                    this.content.put(path.substring(path.indexOf('/') + 1), this.content.content.remove(path));
+                    this.content.move(path, path.substring(path.indexOf('/') + 1));
                 }
             }
         }
@@ -279,10 +311,17 @@ public class ResourcePack {
                     }
                 }
 
-                final byte[] encryptedData = this.content.get(path);
+                // Files are decrypted lazily when they are accessed for the first time
                 final byte[] keyBytes = key.getBytes(StandardCharsets.ISO_8859_1);
-                aesCfb8.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyBytes, "AES"), new IvParameterSpec(Arrays.copyOfRange(keyBytes, 0, 16)));
-                this.content.put(path, aesCfb8.doFinal(encryptedData));
+                this.content.transform(path, encryptedData -> {
+                    try {
+                        final Cipher cipher = Cipher.getInstance("AES/CFB8/NoPadding");
+                        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyBytes, "AES"), new IvParameterSpec(Arrays.copyOfRange(keyBytes, 0, 16)));
+                        return cipher.doFinal(encryptedData);
+                    } catch (GeneralSecurityException e) {
+                        throw new IllegalStateException("Failed to decrypt resource pack file: " + path, e);
+                    }
+                });
             }
         }
 
@@ -309,6 +348,12 @@ public class ResourcePack {
         } else if (!this.version.contentEquals(version)) {
             throw new IllegalStateException("manifest.json version mismatch: " + this.version + " != " + version);
         }
+
+        this.content = this.content.toImmutable();
+        if (registryKey != null) {
+            this.content = ResourcePackRegistry.getInstance().register(registryKey, this.content);
+            this.registryKey = registryKey;
+        }
     }
 
     private boolean hasReceivedAllChunks() {
@@ -324,6 +369,8 @@ public class ResourcePack {
 
         private final Map<String, byte[]> content;
         private final Map<String, Map<String, String>> langCache;
+        private final boolean immutable;
+        private SoftReference<byte[]> zipCache;
 
         public Content() {
             this(false);
@@ -337,11 +384,29 @@ public class ResourcePack {
                 this.content = new HashMap<>();
                 this.langCache = new HashMap<>();
             }
+            this.immutable = false;
+        }
+
+        private Content(final Map<String, byte[]> content) {
+            this.content = content;
+            this.langCache = new ConcurrentHashMap<>();
+            this.immutable = true;
         }
 
+        /**
+         * Creates a content backed by the given zip file. Entries are only decompressed when they are accessed.
+         *
+         * @param zipData The zip file
+         */
         public Content(final byte[] zipData) throws IOException {
-            this(false);
+            final ZipContentMap zipContent = ZipContentMap.read(zipData);
+            this.content = zipContent != null ? zipContent : readZip(zipData);
+            this.langCache = new HashMap<>();
+            this.immutable = false;
+        }
 
+        private static Map<String, byte[]> readZip(final byte[] zipData) throws IOException {
+            final Map<String, byte[]> content = new HashMap<>();
             final ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipData));
             ZipEntry zipEntry;
             int len;
@@ -352,9 +417,10 @@ public class ResourcePack {
                 while ((len = zipInputStream.read(buf)) > 0) {
                     baos.write(buf, 0, len);
                 }
-                this.content.put(zipEntry.getName(), baos.toByteArray());
+                content.put(zipEntry.getName(), baos.toByteArray());
                 baos.reset();
             }
+            return content;
         }
 
         public List<String> getFilesShallow(final String path, final String extension) {
@@ -483,20 +549,69 @@ public class ResourcePack {
             this.put(targetPath, content.get(sourcePath));
         }
 
+        public void putAll(final Content content) {
+            this.content.putAll(content.content);
+        }
+
+        void move(final String sourcePath, final String targetPath) {
+            if (this.content instanceof ZipContentMap zipContent) {
+                zipContent.rename(sourcePath, targetPath);
+            } else {
+                this.content.put(targetPath, this.content.remove(sourcePath));
+            }
+        }
+
+        void transform(final String path, final Function<byte[], byte[]> function) {
+            if (this.content instanceof ZipContentMap zipContent) {
+                zipContent.transform(path, function);
+            } else {
+                this.content.put(path, function.apply(this.content.get(path)));
+            }
+        }
+
+        /**
+         * Creates an immutable view of this content which can be shared between threads. This content must not be modified afterward.
+         * The zip data of immutable contents is cached as long as there is enough memory.
+         *
+         * @return The immutable content
+         */
+        public Content toImmutable() {
+            if (this.immutable) {
+                return this;
+            }
+            return new Content(this.content instanceof ZipContentMap zipContent ? zipContent.freeze() : Collections.unmodifiableMap(this.content));
+        }
+
+        public boolean isImmutable() {
+            return this.immutable;
+        }
+
         public byte[] toZip() throws IOException {
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024 * 1024 * 4);
-            final ZipOutputStream zipOutputStream = new ZipOutputStream(baos);
-            final List<String> sortedKeys = new ArrayList<>(this.content.keySet());
-            Collections.sort(sortedKeys);
-            for (final String key : sortedKeys) {
-                final ZipEntry entry = new ZipEntry(key);
-                entry.setTimeLocal(java.time.LocalDateTime.of(2024, 1, 1, 0, 0, 0));
-                zipOutputStream.putNextEntry(entry);
-                zipOutputStream.write(this.content.get(key));
-                zipOutputStream.closeEntry();
+            if (this.immutable) {
+                final SoftReference<byte[]> zipCache = this.zipCache;
+                byte[] zipData = zipCache != null ? zipCache.get() : null;
+                if (zipData == null) {
+                    zipData = ZipWriter.toByteArray(this.content);
+                    this.zipCache = new SoftReference<>(zipData);
+                }
+                return zipData;
+            }
+            return ZipWriter.toByteArray(this.content);
+        }
+
+        /**
+         * Streams this content as zip file into the given output stream without building the whole zip file in memory.
+         *
+         * @param outputStream The output stream
+         */
+        public void writeZip(final OutputStream outputStream) throws IOException {
+            final SoftReference<byte[]> zipCache = this.zipCache;
+            final byte[] zipData = zipCache != null ? zipCache.get() : null;
+            if (zipData != null) {
+                outputStream.write(zipData);
+            } else {
+                ZipWriter.write(this.content, outputStream);
             }
-            zipOutputStream.close();
-            return baos.toByteArray();
         }
 
         public int size() {
@@ -0,0 +1,127 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.api.model.resourcepack;
+
+import net.raphimc.viabedrock.protocol.storage.ResourcePacksStorage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of the definitions parsed from a resource pack stack.
+ * <p>
+ * Connections with the same pack stack (for example all players on the same server) share the parsed definitions instead of parsing the
+ * JSON and lang files of every pack again. The cache is keyed by a fingerprint of the ordered pack stack and holds a limited amount of stacks.
+ */
+public final class ResourcePackDefinitionsCache {
+
+    private static final int MAX_SIZE = 8;
+    private static final ResourcePackDefinitionsCache INSTANCE = new ResourcePackDefinitionsCache();
+
+    public static ResourcePackDefinitionsCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final Map<String, Definitions> cache = new LinkedHashMap<>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Definitions> eldest) {
+            return this.size() > MAX_SIZE;
+        }
+    };
+    private long hits;
+    private long misses;
+
+    private ResourcePackDefinitionsCache() {
+    }
+
+    /**
+     * Gets the definitions for the pack stack of the given storage. The returned definitions are shared and must not be modified.
+     *
+     * @param resourcePacksStorage The storage with the pack stack already set
+     * @return The definitions
+     */
+    public Definitions get(final ResourcePacksStorage resourcePacksStorage) {
+        final String fingerprint = computeFingerprint(resourcePacksStorage);
+        synchronized (this) {
+            final Definitions definitions = this.cache.get(fingerprint);
+            if (definitions != null) {
+                this.hits++;
+                return definitions;
+            }
+            this.misses++;
+        }
+
+        // Parsed outside the lock. Connections racing for the same stack might parse it twice, but only the first result is kept.
+        final Definitions definitions = new Definitions(
+                new TextDefinitions(resourcePacksStorage),
+                new BlockDefinitions(resourcePacksStorage),
+                new ItemDefinitions(resourcePacksStorage),
+                new AttachableDefinitions(resourcePacksStorage),
+                new TextureDefinitions(resourcePacksStorage),
+                new SoundDefinitions(resourcePacksStorage),
+                new ParticleDefinitions(resourcePacksStorage),
+                new EntityDefinitions(resourcePacksStorage),
+                new ModelDefinitions(resourcePacksStorage),
+                new FogDefinitions(resourcePacksStorage),
+                new BiomeDefinitions(resourcePacksStorage),
+                new RenderControllerDefinitions(resourcePacksStorage)
+        );
+        synchronized (this) {
+            final Definitions existingDefinitions = this.cache.putIfAbsent(fingerprint, definitions);
+            return existingDefinitions != null ? existingDefinitions : definitions;
+        }
+    }
+
+    public synchronized void clear() {
+        this.cache.clear();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized int getSize() {
+        return this.cache.size();
+    }
+
+    private static String computeFingerprint(final ResourcePacksStorage resourcePacksStorage) {
+        try {
+            final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            for (ResourcePack pack : resourcePacksStorage.getPackStackTopToBottom()) {
+                sha256.update((pack.packId() + "_" + pack.version() + "_" + pack.contentHash() + ",").getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(sha256.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record Definitions(TextDefinitions texts, BlockDefinitions blocks, ItemDefinitions items, AttachableDefinitions attachables,
+                              TextureDefinitions textures, SoundDefinitions sounds, ParticleDefinitions particles, EntityDefinitions entities,
+                              ModelDefinitions models, FogDefinitions fogs, BiomeDefinitions biomes, RenderControllerDefinitions renderControllers) {
+    }
+
+}
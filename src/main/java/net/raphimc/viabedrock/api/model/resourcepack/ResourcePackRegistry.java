@@ -0,0 +1,101 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.api.model.resourcepack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process wide registry of decoded resource pack contents.
+ * <p>
+ * Connections receiving the same pack share a single immutable {@link ResourcePack.Content}. The contents are reference counted
+ * and dropped once the last connection using them released its pack.
+ */
+public final class ResourcePackRegistry {
+
+    private static final ResourcePackRegistry INSTANCE = new ResourcePackRegistry();
+
+    public static ResourcePackRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private final Map<String, Entry> packs = new HashMap<>();
+
+    private ResourcePackRegistry() {
+    }
+
+    /**
+     * Acquires a reference to an already decoded pack.
+     *
+     * @param key The pack key
+     * @return The shared content or null if no connection uses the pack at the moment
+     */
+    public synchronized ResourcePack.Content acquire(final String key) {
+        final Entry entry = this.packs.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        entry.references++;
+        return entry.content;
+    }
+
+    /**
+     * Registers a freshly decoded pack and acquires a reference to it. If another connection registered the same pack in the meantime, its content is used instead.
+     *
+     * @param key     The pack key
+     * @param content The decoded immutable content
+     * @return The shared content
+     */
+    public synchronized ResourcePack.Content register(final String key, final ResourcePack.Content content) {
+        final Entry entry = this.packs.computeIfAbsent(key, k -> new Entry(content));
+        entry.references++;
+        return entry.content;
+    }
+
+    /**
+     * Releases a reference acquired by {@link #acquire(String)} or {@link #register(String, ResourcePack.Content)}.
+     *
+     * @param key The pack key
+     */
+    public synchronized void release(final String key) {
+        final Entry entry = this.packs.get(key);
+        if (entry != null && --entry.references <= 0) {
+            this.packs.remove(key);
+        }
+    }
+
+    /**
+     * @return The amount of distinct packs currently held
+     */
+    public synchronized int getPackCount() {
+        return this.packs.size();
+    }
+
+    private static final class Entry {
+
+        private final ResourcePack.Content content;
+        private int references;
+
+        private Entry(final ResourcePack.Content content) {
+            this.content = content;
+        }
+
+    }
+
+}
@@ -0,0 +1,359 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.api.model.resourcepack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A map of zip file entries which are only inflated when they are accessed. The central directory of the zip file is used as an index,
+ * so the entries don't have to be decompressed upfront. Recently inflated entries are cached up to a fixed size.<br>
+ * Reads are thread safe. Entries which are put into the map replace the zip backed entries.
+ */
+final class ZipContentMap extends AbstractMap<String, byte[]> {
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CACHE_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_DEFLATE_RATIO = 1032; // Deflate can't compress better than ~1032:1, larger declared sizes are bogus
+
+    private final byte[] zipData;
+    private boolean frozen;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> values = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75F, true);
+    private int cacheSize;
+
+    private ZipContentMap(final byte[] zipData) {
+        this.zipData = zipData;
+    }
+
+    /**
+     * Reads the central directory of the given zip file.
+     *
+     * @param zipData The zip file
+     * @return The map or null if the zip file can't be read lazily (ZIP64, encrypted, unsupported compression method or implausible entry sizes)
+     */
+    static ZipContentMap read(final byte[] zipData) {
+        final ByteBuffer buffer = ByteBuffer.wrap(zipData).order(ByteOrder.LITTLE_ENDIAN);
+        int endOfCentralDirectory = -1;
+        for (int i = zipData.length - END_OF_CENTRAL_DIRECTORY_SIZE; i >= Math.max(0, zipData.length - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF); i--) {
+            if (buffer.getInt(i) == ZipWriter.END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                endOfCentralDirectory = i;
+                break;
+            }
+        }
+        if (endOfCentralDirectory == -1) {
+            return null;
+        }
+
+        final int entryCount = Short.toUnsignedInt(buffer.getShort(endOfCentralDirectory + 10));
+        final long centralDirectoryOffset = Integer.toUnsignedLong(buffer.getInt(endOfCentralDirectory + 16));
+        if (entryCount == 0xFFFF || centralDirectoryOffset >= endOfCentralDirectory) {
+            return null;
+        }
+
+        final ZipContentMap map = new ZipContentMap(zipData);
+        int position = (int) centralDirectoryOffset;
+        for (int i = 0; i < entryCount; i++) {
+            if (position + 46 > endOfCentralDirectory || buffer.getInt(position) != ZipWriter.CENTRAL_DIRECTORY_SIGNATURE) {
+                return null;
+            }
+            final int flags = Short.toUnsignedInt(buffer.getShort(position + 8));
+            final int method = Short.toUnsignedInt(buffer.getShort(position + 10));
+            final int crc = buffer.getInt(position + 16);
+            final long compressedSize = Integer.toUnsignedLong(buffer.getInt(position + 20));
+            final long size = Integer.toUnsignedLong(buffer.getInt(position + 24));
+            final int nameLength = Short.toUnsignedInt(buffer.getShort(position + 28));
+            final int extraLength = Short.toUnsignedInt(buffer.getShort(position + 30));
+            final int commentLength = Short.toUnsignedInt(buffer.getShort(position + 32));
+            final long localHeaderOffset = Integer.toUnsignedLong(buffer.getInt(position + 42));
+            final String name = new String(zipData, position + 46, nameLength, StandardCharsets.UTF_8);
+            position += 46 + nameLength + extraLength + commentLength;
+
+            if ((flags & 1) != 0 || (method != ZipWriter.STORED && method != ZipWriter.DEFLATED)) {
+                return null;
+            }
+            if (compressedSize >= Integer.MAX_VALUE || size >= Integer.MAX_VALUE || localHeaderOffset + 30 > zipData.length) {
+                return null;
+            }
+            final int localHeader = (int) localHeaderOffset;
+            if (buffer.getInt(localHeader) != ZipWriter.LOCAL_FILE_HEADER_SIGNATURE) {
+                return null;
+            }
+            final long dataOffset = localHeaderOffset + 30 + Short.toUnsignedInt(buffer.getShort(localHeader + 26)) + Short.toUnsignedInt(buffer.getShort(localHeader + 28));
+            if (dataOffset + compressedSize > zipData.length) {
+                return null;
+            }
+            if (method == ZipWriter.STORED ? size != compressedSize : size > compressedSize * MAX_DEFLATE_RATIO + 1024) { // The declared size is untrusted and used to allocate the entry buffer
+                return null;
+            }
+            if (name.endsWith("/")) continue;
+
+            map.entries.put(name, new Entry(method, crc, (int) dataOffset, (int) compressedSize, (int) size, null));
+        }
+        return map;
+    }
+
+    /**
+     * Makes this map read-only. Any further modification throws an {@link UnsupportedOperationException}.
+     *
+     * @return This map
+     */
+    ZipContentMap freeze() {
+        this.frozen = true;
+        return this;
+    }
+
+    /**
+     * Gets the compressed data of an entry, if it is still unmodified.
+     *
+     * @param key The entry key
+     * @return The compressed entry or null if the entry was put or transformed
+     */
+    ZipWriter.CompressedEntry getCompressedEntry(final String key) {
+        if (this.values.containsKey(key)) {
+            return null;
+        }
+        final Entry entry = this.entries.get(key);
+        if (entry == null || entry.transformer != null) {
+            return null;
+        }
+        return new ZipWriter.CompressedEntry(key.getBytes(StandardCharsets.UTF_8), entry.method, entry.crc, entry.size, this.zipData, entry.offset, entry.compressedSize);
+    }
+
+    /**
+     * Applies a function to the data of an entry. Zip backed entries are transformed lazily when they are inflated.
+     *
+     * @param key      The entry key
+     * @param function The function to apply
+     */
+    void transform(final String key, final Function<byte[], byte[]> function) {
+        this.checkModifiable();
+        final Entry entry = this.entries.get(key);
+        if (entry != null) {
+            this.entries.put(key, entry.andThen(function));
+            this.invalidate(key);
+        } else if (this.values.containsKey(key)) {
+            this.values.put(key, function.apply(this.values.get(key)));
+        }
+    }
+
+    /**
+     * Moves an entry to another key without inflating it.
+     *
+     * @param oldKey The current key
+     * @param newKey The new key
+     */
+    void rename(final String oldKey, final String newKey) {
+        this.checkModifiable();
+        final Entry entry = this.entries.remove(oldKey);
+        this.invalidate(oldKey);
+        this.invalidate(newKey);
+        if (entry != null) {
+            this.values.remove(newKey);
+            this.entries.put(newKey, entry);
+        } else if (this.values.containsKey(oldKey)) {
+            this.entries.remove(newKey);
+            this.values.put(newKey, this.values.remove(oldKey));
+        }
+    }
+
+    @Override
+    public byte[] get(final Object key) {
+        final byte[] value = this.values.get(key);
+        if (value != null) {
+            return value;
+        }
+        final Entry entry = this.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        synchronized (this.cache) {
+            final byte[] cachedData = this.cache.get(key);
+            if (cachedData != null) {
+                return cachedData;
+            }
+        }
+        final byte[] data = entry.read(this.zipData);
+        if (data.length <= CACHE_SIZE / 4) {
+            synchronized (this.cache) {
+                if (this.entries.get(key) == entry && this.cache.put((String) key, data) == null) {
+                    this.cacheSize += data.length;
+                    final Iterator<byte[]> it = this.cache.values().iterator();
+                    while (this.cacheSize > CACHE_SIZE && it.hasNext()) {
+                        this.cacheSize -= it.next().length;
+                        it.remove();
+                    }
+                }
+            }
+        }
+        return data;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return this.values.containsKey(key) || this.entries.containsKey(key);
+    }
+
+    @Override
+    public byte[] put(final String key, final byte[] value) {
+        this.checkModifiable();
+        final byte[] previousValue = this.entries.containsKey(key) ? this.get(key) : this.values.get(key);
+        this.entries.remove(key);
+        this.invalidate(key);
+        this.values.put(key, value);
+        return previousValue;
+    }
+
+    @Override
+    public byte[] remove(final Object key) {
+        this.checkModifiable();
+        final byte[] previousValue = this.get(key);
+        this.entries.remove(key);
+        this.values.remove(key);
+        this.invalidate(key);
+        return previousValue;
+    }
+
+    @Override
+    public int size() {
+        return this.entries.size() + this.values.size();
+    }
+
+    @Override
+    public Set<Map.Entry<String, byte[]>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, byte[]>> iterator() {
+                final Iterator<String> keys = new ArrayList<>(this.keys()).iterator();
+                return new Iterator<>() {
+                    private String key;
+
+                    @Override
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, byte[]> next() {
+                        this.key = keys.next();
+                        final String key = this.key;
+                        return new AbstractMap.SimpleImmutableEntry<>(key, null) {
+                            @Override
+                            public byte[] getValue() {
+                                return ZipContentMap.this.get(key);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (this.key == null) {
+                            throw new IllegalStateException();
+                        }
+                        ZipContentMap.this.remove(this.key);
+                        this.key = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ZipContentMap.this.size();
+            }
+
+            private Set<String> keys() {
+                final Set<String> keys = new HashSet<>(ZipContentMap.this.entries.keySet());
+                keys.addAll(ZipContentMap.this.values.keySet());
+                return keys;
+            }
+        };
+    }
+
+    private void checkModifiable() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("Content is immutable");
+        }
+    }
+
+    private void invalidate(final Object key) {
+        synchronized (this.cache) {
+            final byte[] cachedData = this.cache.remove(key);
+            if (cachedData != null) {
+                this.cacheSize -= cachedData.length;
+            }
+        }
+    }
+
+    private record Entry(int method, int crc, int offset, int compressedSize, int size, Function<byte[], byte[]> transformer) {
+
+        private Entry andThen(final Function<byte[], byte[]> function) {
+            return new Entry(this.method, this.crc, this.offset, this.compressedSize, this.size, this.transformer != null ? this.transformer.andThen(function) : function);
+        }
+
+        private byte[] read(final byte[] zipData) {
+            final byte[] data;
+            if (this.method == ZipWriter.STORED) {
+                data = Arrays.copyOfRange(zipData, this.offset, this.offset + this.size);
+            } else {
+                data = new byte[this.size];
+                final Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(zipData, this.offset, this.compressedSize);
+                    int length = 0;
+                    while (length < data.length && !inflater.finished()) {
+                        final int read = inflater.inflate(data, length, data.length - length);
+                        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new IllegalStateException("Truncated zip entry");
+                        }
+                        length += read;
+                    }
+                    if (!inflater.finished() && inflater.inflate(new byte[1]) != 0) { // The stream can still end with an empty block
+                        throw new IllegalStateException("Zip entry is larger than declared: " + this.size);
+                    }
+                    if (!inflater.finished()) {
+                        throw new IllegalStateException("Truncated zip entry");
+                    }
+                    if (length != this.size) {
+                        throw new IllegalStateException("Zip entry size mismatch: " + length + " != " + this.size);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IllegalStateException("Invalid zip entry", e);
+                } finally {
+                    inflater.end();
+                }
+            }
+            final CRC32 crc32 = new CRC32();
+            crc32.update(data);
+            if ((int) crc32.getValue() != this.crc) {
+                throw new IllegalStateException("Zip entry CRC mismatch: " + Integer.toHexString((int) crc32.getValue()) + " != " + Integer.toHexString(this.crc));
+            }
+            return this.transformer != null ? this.transformer.apply(data) : data;
+        }
+
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.api.model.resourcepack;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Deterministic zip writer for resource pack contents. Entries are sorted by name and written with a fixed timestamp, so the same content
+ * always results in the same zip file.<br>
+ * Entries are deflated in parallel, already compressed files (images, sounds, archives) are stored and unmodified entries of zip backed
+ * contents are copied without recompressing them.
+ */
+final class ZipWriter {
+
+    static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034B50;
+    static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014B50;
+    static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054B50;
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final int VERSION = 20;
+    private static final int UTF8_FLAG = 0x800;
+    private static final int DOS_TIME = 0; // 00:00:00
+    private static final int DOS_DATE = ((2024 - 1980) << 9) | (1 << 5) | 1; // 2024-01-01
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final int BATCH_SIZE = 256;
+    private static final Set<String> STORED_EXTENSIONS = Set.of("png", "jpg", "jpeg", "ogg", "fsb", "zip", "mcpack");
+
+    private final OutputStream outputStream;
+    private final ByteBuffer header = ByteBuffer.allocate(CENTRAL_DIRECTORY_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<CentralDirectoryEntry> centralDirectory = new ArrayList<>();
+    private long offset;
+
+    private ZipWriter(final OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Writes the content as zip file into a byte array of the exact size.
+     *
+     * @param content The content
+     * @return The zip file
+     */
+    static byte[] toByteArray(final Map<String, byte[]> content) throws IOException {
+        final List<String> keys = sortedKeys(content);
+        if (keys.size() > MAX_ENTRIES) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(0);
+            writeZip64(content, keys, outputStream);
+            return outputStream.toByteArray();
+        }
+
+        final List<CompressedEntry> entries = keys.parallelStream().map(key -> compress(content, key)).toList();
+        long size = END_OF_CENTRAL_DIRECTORY_SIZE;
+        for (CompressedEntry entry : entries) {
+            size += LOCAL_FILE_HEADER_SIZE + CENTRAL_DIRECTORY_HEADER_SIZE + entry.name.length * 2L + entry.length;
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Zip file too large: " + size + " bytes");
+        }
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) size);
+        final ZipWriter writer = new ZipWriter(outputStream);
+        for (CompressedEntry entry : entries) {
+            writer.writeEntry(entry);
+        }
+        writer.finish();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Streams the content as zip file into the given output stream. Only a batch of compressed entries is kept in memory at a time.
+     *
+     * @param content      The content
+     * @param outputStream The output stream
+     */
+    static void write(final Map<String, byte[]> content, final OutputStream outputStream) throws IOException {
+        final List<String> keys = sortedKeys(content);
+        if (keys.size() > MAX_ENTRIES) {
+            writeZip64(content, keys, outputStream);
+            return;
+        }
+
+        final ZipWriter writer = new ZipWriter(outputStream);
+        for (int i = 0; i < keys.size(); i += BATCH_SIZE) {
+            final List<CompressedEntry> entries = keys.subList(i, Math.min(i + BATCH_SIZE, keys.size())).parallelStream().map(key -> compress(content, key)).toList();
+            for (CompressedEntry entry : entries) {
+                writer.writeEntry(entry);
+            }
+        }
+        writer.finish();
+    }
+
+    private static List<String> sortedKeys(final Map<String, byte[]> content) {
+        final List<String> keys = new ArrayList<>(content.keySet());
+        keys.sort(null);
+        return keys;
+    }
+
+    private static CompressedEntry compress(final Map<String, byte[]> content, final String key) {
+        if (content instanceof ZipContentMap zipContent) {
+            final CompressedEntry compressedEntry = zipContent.getCompressedEntry(key);
+            if (compressedEntry != null) {
+                return compressedEntry;
+            }
+        }
+
+        final byte[] name = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] data = content.get(key);
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        final String extension = key.substring(key.lastIndexOf('.') + 1);
+        if (!STORED_EXTENSIONS.contains(extension)) {
+            final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                byte[] compressedData = new byte[Math.max(64, data.length / 2)];
+                int length = 0;
+                while (!deflater.finished() && length < data.length) {
+                    if (length == compressedData.length) {
+                        compressedData = Arrays.copyOf(compressedData, compressedData.length * 2);
+                    }
+                    length += deflater.deflate(compressedData, length, compressedData.length - length);
+                }
+                if (deflater.finished() && length < data.length) {
+                    return new CompressedEntry(name, DEFLATED, (int) crc.getValue(), data.length, compressedData, 0, length);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        return new CompressedEntry(name, STORED, (int) crc.getValue(), data.length, data, 0, data.length);
+    }
+
+    private static void writeZip64(final Map<String, byte[]> content, final List<String> keys, final OutputStream outputStream) throws IOException {
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        for (String key : keys) {
+            final ZipEntry entry = new ZipEntry(key);
+            entry.setTimeLocal(LocalDateTime.of(2024, 1, 1, 0, 0, 0));
+            zipOutputStream.putNextEntry(entry);
+            zipOutputStream.write(content.get(key));
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.finish();
+    }
+
+    private void writeEntry(final CompressedEntry entry) throws IOException {
+        if (this.offset + LOCAL_FILE_HEADER_SIZE + entry.name.length + entry.length > 0xFFFFFFFFL) {
+            throw new IOException("Zip file too large");
+        }
+
+        this.header.clear();
+        this.header.putInt(LOCAL_FILE_HEADER_SIGNATURE);
+        this.header.putShort((short) VERSION);
+        this.header.putShort((short) UTF8_FLAG);
+        this.header.putShort((short) entry.method);
+        this.header.putShort((short) DOS_TIME);
+        this.header.putShort((short) DOS_DATE);
+        this.header.putInt(entry.crc);
+        this.header.putInt(entry.length);
+        this.header.putInt(entry.size);
+        this.header.putShort((short) entry.name.length);
+        this.header.putShort((short) 0); // extra field length
+        this.outputStream.write(this.header.array(), 0, this.header.position());
+        this.outputStream.write(entry.name);
+        this.outputStream.write(entry.data, entry.offset, entry.length);
+
+        this.centralDirectory.add(new CentralDirectoryEntry(entry.name, entry.method, entry.crc, entry.size, entry.length, (int) this.offset));
+        this.offset += LOCAL_FILE_HEADER_SIZE + entry.name.length + entry.length;
+    }
+
+    private void finish() throws IOException {
+        final long centralDirectoryOffset = this.offset;
+        for (CentralDirectoryEntry entry : this.centralDirectory) {
+            this.header.clear();
+            this.header.putInt(CENTRAL_DIRECTORY_SIGNATURE);
+            this.header.putShort((short) VERSION); // version made by
+            this.header.putShort((short) VERSION); // version needed to extract
+            this.header.putShort((short) UTF8_FLAG);
+            this.header.putShort((short) entry.method);
+            this.header.putShort((short) DOS_TIME);
+            this.header.putShort((short) DOS_DATE);
+            this.header.putInt(entry.crc);
+            this.header.putInt(entry.compressedSize);
+            this.header.putInt(entry.size);
+            this.header.putShort((short) entry.name.length);
+            this.header.putShort((short) 0); // extra field length
+            this.header.putShort((short) 0); // comment length
+            this.header.putShort((short) 0); // disk number
+            this.header.putShort((short) 0); // internal attributes
+            this.header.putInt(0); // external attributes
+            this.header.putInt(entry.offset);
+            this.outputStream.write(this.header.array(), 0, this.header.position());
+            this.outputStream.write(entry.name);
+            this.offset += CENTRAL_DIRECTORY_HEADER_SIZE + entry.name.length;
+        }
+        if (this.offset > 0xFFFFFFFFL) {
+            throw new IOException("Zip file too large");
+        }
+
+        this.header.clear();
+        this.header.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        this.header.putShort((short) 0); // disk number
+        this.header.putShort((short) 0); // central directory disk number
+        this.header.putShort((short) this.centralDirectory.size());
+        this.header.putShort((short) this.centralDirectory.size());
+        this.header.putInt((int) (this.offset - centralDirectoryOffset));
+        this.header.putInt((int) centralDirectoryOffset);
+        this.header.putShort((short) 0); // comment length
+        this.outputStream.write(this.header.array(), 0, this.header.position());
+        this.outputStream.flush();
+    }
+
+    record CompressedEntry(byte[] name, int method, int crc, int size, byte[] data, int offset, int length) {
+    }
+
+    private record CentralDirectoryEntry(byte[] name, int method, int crc, int size, int compressedSize, int offset) {
+    }
+
+    /**
+     * Byte array output stream which doesn't copy its buffer if it was sized exactly.
+     */
+    private static final class ByteArrayOutputStream extends java.io.ByteArrayOutputStream {
+
+        private ByteArrayOutputStream(final int size) {
+            super(size);
+        }
+
+        @Override
+        public synchronized byte[] toByteArray() {
+            if (this.count == this.buf.length) {
+                return this.buf;
+            }
+            return super.toByteArray();
+        }
+
+    }
+
+}
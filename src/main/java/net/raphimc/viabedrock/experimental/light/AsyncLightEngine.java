@@ -18,11 +18,13 @@
 package net.raphimc.viabedrock.experimental.light;
 
 import com.viaversion.viaversion.api.connection.UserConnection;
+import com.viaversion.viaversion.api.minecraft.BlockPosition;
 import com.viaversion.viaversion.api.minecraft.ChunkPosition;
 import com.viaversion.viaversion.api.minecraft.chunks.*;
 import com.viaversion.viaversion.api.protocol.packet.PacketWrapper;
 import com.viaversion.viaversion.api.type.Types;
 import com.viaversion.viaversion.protocols.v1_21_9to1_21_11.packet.ClientboundPackets1_21_11;
+import net.raphimc.viabedrock.api.chunk.LightSections;
 import net.raphimc.viabedrock.protocol.BedrockProtocol;
 import net.raphimc.viabedrock.protocol.data.BedrockMappingData;
 import net.raphimc.viabedrock.protocol.storage.ChunkTracker;
@@ -52,6 +54,8 @@ public class AsyncLightEngine implements ChunkLightProvider {
     private final Map<Long, byte[][]> cachedBlockLight = new HashMap<>();
     private final Set<Long> pendingLightUpdates = new HashSet<>();
     private final Set<Long> pendingAsyncLight = new HashSet<>();
+    private final Map<Long, GlobalLightCache.LightJob> lightJobs = new HashMap<>();
+    private final List<BlockChange> pendingBlockChanges = new ArrayList<>();
 
     public AsyncLightEngine(final UserConnection user) {
         this.user = user;
@@ -86,6 +90,7 @@ public class AsyncLightEngine implements ChunkLightProvider {
 
         if (cached != null) {
             // Cache hit: use real light
+            this.cancelLightJob(chunkKey);
             skyLight = cached.skyLight();
             blockLight = cached.blockLight();
             this.cachedSkyLight.put(chunkKey, skyLight);
@@ -96,7 +101,7 @@ public class AsyncLightEngine implements ChunkLightProvider {
             this.markNeighborLightDirty(chunkX, chunkZ);
         } else {
             // Cache miss: send with placeholder light, compute async
-            skyLight = generatePlaceholderSkyLight(lightSectionCount);
+            skyLight = LightSections.fullBright(lightSectionCount);
             blockLight = new byte[lightSectionCount][];
             this.cachedSkyLight.put(chunkKey, skyLight);
             this.cachedBlockLight.put(chunkKey, blockLight);
@@ -105,9 +110,10 @@ public class AsyncLightEngine implements ChunkLightProvider {
             this.sentChunks.add(chunkKey);
             // Don't markNeighborLightDirty here — placeholder light would pollute neighbor calculations
 
-            // Submit async light computation
+            // Submit async light computation. The chunk stays pending until real light was computed, even if the light queue is full.
             this.pendingAsyncLight.add(chunkKey);
-            GlobalLightCache.getInstance().submitAsync(() -> {
+            final GlobalLightCache.LightJob[] job = new GlobalLightCache.LightJob[1];
+            job[0] = this.submitLightJob(chunkKey, () -> {
                 final byte[][] realSkyLight = computeSkyLight(sections, neighborSections, neighborCachedSkyLight);
                 final byte[][] realBlockLight = computeBlockLight(sections, neighborSections, neighborCachedBlockLight);
                 GlobalLightCache.getInstance().put(lightCacheKey, realSkyLight, realBlockLight);
@@ -116,13 +122,18 @@ public class AsyncLightEngine implements ChunkLightProvider {
                     if (!user.getChannel().isActive()) return;
                     if (!this.sentChunks.contains(chunkKey)) return;
                     if (this.cachedSections.get(chunkKey) != sections) return; // chunk was overwritten
-                    this.pendingAsyncLight.remove(chunkKey);
+                    if (this.lightJobs.remove(chunkKey, job[0])) { // A newer job of the same chunk is still pending otherwise
+                        this.pendingAsyncLight.remove(chunkKey);
+                    }
                     this.cachedSkyLight.put(chunkKey, realSkyLight);
                     this.cachedBlockLight.put(chunkKey, realBlockLight);
                     this.sendLightUpdate(chunkX, chunkZ, realSkyLight, realBlockLight);
                     this.markNeighborLightDirty(chunkX, chunkZ);
                 });
             });
+            if (job[0] == null) {
+                this.pendingLightUpdates.add(chunkKey); // Queue is full, retry in a later tick
+            }
         }
 
         return true;
@@ -135,34 +146,63 @@ public class AsyncLightEngine implements ChunkLightProvider {
         this.cachedSkyLight.remove(chunkKey);
         this.cachedBlockLight.remove(chunkKey);
         this.pendingLightUpdates.remove(chunkKey);
-        this.pendingAsyncLight.remove(chunkKey);
+        this.cancelLightJob(chunkKey);
+    }
+
+    @Override
+    public void onBlockChange(final ChunkTracker tracker, final BlockPosition position, final int javaBlockState) {
+        final long chunkKey = ChunkPosition.chunkKey(position.x() >> 4, position.z() >> 4);
+        if (this.sentChunks.contains(chunkKey) && this.cachedSections.containsKey(chunkKey)) {
+            this.pendingBlockChanges.add(new BlockChange(position.x(), position.y() - tracker.getMinY(), position.z(), javaBlockState));
+        }
     }
 
     @Override
     public void tick() {
+        if (!this.pendingBlockChanges.isEmpty()) {
+            this.relightBlockChanges();
+        }
         if (!this.pendingLightUpdates.isEmpty()) {
-            int lightBudget = MAX_LIGHT_UPDATES_PER_TICK;
+            // Collect first, as updates which don't fit into the light queue are added back for the next tick
+            final long[] chunkKeys = new long[Math.min(MAX_LIGHT_UPDATES_PER_TICK, this.pendingLightUpdates.size())];
             final Iterator<Long> it = this.pendingLightUpdates.iterator();
-            while (it.hasNext() && lightBudget > 0) {
-                final long chunkKey = it.next();
+            for (int i = 0; i < chunkKeys.length; i++) {
+                chunkKeys[i] = it.next();
                 it.remove();
-                lightBudget--;
+            }
+            for (long chunkKey : chunkKeys) {
                 this.updateSingleNeighborLight(chunkKey);
             }
         }
     }
 
-    // --- Light computation methods ---
-
-    private static byte[][] generatePlaceholderSkyLight(final int lightSectionCount) {
-        final byte[][] skyLight = new byte[lightSectionCount][];
-        for (int i = 0; i < lightSectionCount; i++) {
-            skyLight[i] = new byte[ChunkSectionLight.LIGHT_LENGTH];
-            Arrays.fill(skyLight[i], (byte) 0xFF);
+    /**
+     * Relight the area around all block changes of this tick in one batch. Changes in chunks which are still waiting
+     * for their async light are kept until the real light arrived, as the placeholder light can't be updated incrementally.
+     */
+    private void relightBlockChanges() {
+        final List<BlockChange> changes = new ArrayList<>(this.pendingBlockChanges.size());
+        final Iterator<BlockChange> it = this.pendingBlockChanges.iterator();
+        while (it.hasNext()) {
+            final BlockChange change = it.next();
+            final long chunkKey = ChunkPosition.chunkKey(change.x() >> 4, change.z() >> 4);
+            if (!this.sentChunks.contains(chunkKey)) {
+                it.remove();
+            } else if (!this.pendingAsyncLight.contains(chunkKey)) {
+                changes.add(change);
+                it.remove();
+            }
         }
-        return skyLight;
+        if (changes.isEmpty()) return;
+
+        final IncrementalLightUpdate update = new IncrementalLightUpdate(this.cachedSections, this.cachedSkyLight, this.cachedBlockLight,
+                chunkKey -> this.sentChunks.contains(chunkKey) && !this.pendingAsyncLight.contains(chunkKey));
+        update.apply(changes);
+        update.commit(this::sendLightUpdate);
     }
 
+    // --- Light computation methods ---
+
     // neighborSections: [0]=-X, [1]=+X, [2]=-Z, [3]=+Z; elements may be null
     // neighborCachedSkyLight: cached sky light from already-sent neighbors; elements may be null
     private static byte[][] computeSkyLight(final ChunkSection[] sections, final ChunkSection[][] neighborSections, final byte[][][] neighborCachedSkyLight) {
@@ -261,7 +301,8 @@ public class AsyncLightEngine implements ChunkLightProvider {
         // BFS propagation
         spreadLight(lightData, sections, neighborSections, queue, mappings);
 
-        return lightData;
+        // Most sections are either above the terrain or completely underground
+        return LightSections.share(lightData);
     }
 
     private static boolean shouldEnqueue(final byte[][] lightData, final int sIdx, final int x, final int y, final int z, final int level) {
@@ -509,7 +550,7 @@ public class AsyncLightEngine implements ChunkLightProvider {
     private void updateSingleNeighborLight(final long neighborKey) {
         final ChunkSection[] neighborSections = this.cachedSections.get(neighborKey);
         if (neighborSections == null) return;
-        if (this.pendingAsyncLight.contains(neighborKey)) return; // async already pending
+        if (this.lightJobs.containsKey(neighborKey)) return; // async already pending
 
         final ChunkPosition pos = new ChunkPosition(neighborKey);
         final int nx = pos.chunkX();
@@ -524,6 +565,7 @@ public class AsyncLightEngine implements ChunkLightProvider {
 
         if (cached != null) {
             // Cache hit: synchronous compare and update
+            this.pendingAsyncLight.remove(neighborKey);
             final byte[][] oldSkyLight = this.cachedSkyLight.get(neighborKey);
             final byte[][] oldBlockLight = this.cachedBlockLight.get(neighborKey);
             if (hasLightChanged(oldSkyLight, cached.skyLight()) || hasLightChanged(oldBlockLight, cached.blockLight())) {
@@ -533,8 +575,8 @@ public class AsyncLightEngine implements ChunkLightProvider {
             }
         } else {
             // Cache miss: async computation
-            this.pendingAsyncLight.add(neighborKey);
-            GlobalLightCache.getInstance().submitAsync(() -> {
+            final GlobalLightCache.LightJob[] job = new GlobalLightCache.LightJob[1];
+            job[0] = this.submitLightJob(neighborKey, () -> {
                 final byte[][] newSkyLight = computeSkyLight(neighborSections, neighborsOfNeighbor, neighborSkyLightNeighbors);
                 final byte[][] newBlockLight = computeBlockLight(neighborSections, neighborsOfNeighbor, neighborBlockLightNeighbors);
                 GlobalLightCache.getInstance().put(lightCacheKey, newSkyLight, newBlockLight);
@@ -543,7 +585,9 @@ public class AsyncLightEngine implements ChunkLightProvider {
                     if (!user.getChannel().isActive()) return;
                     if (!this.sentChunks.contains(neighborKey)) return;
                     if (this.cachedSections.get(neighborKey) != neighborSections) return; // chunk was overwritten
-                    this.pendingAsyncLight.remove(neighborKey);
+                    if (this.lightJobs.remove(neighborKey, job[0])) { // A newer job of the same chunk is still pending otherwise
+                        this.pendingAsyncLight.remove(neighborKey);
+                    }
                     final byte[][] oldSky = this.cachedSkyLight.get(neighborKey);
                     final byte[][] oldBlock = this.cachedBlockLight.get(neighborKey);
                     if (hasLightChanged(oldSky, newSkyLight) || hasLightChanged(oldBlock, newBlockLight)) {
@@ -554,6 +598,37 @@ public class AsyncLightEngine implements ChunkLightProvider {
                     }
                 });
             });
+            if (job[0] == null) {
+                this.pendingLightUpdates.add(neighborKey); // Queue is full, retry in a later tick
+            }
+        }
+    }
+
+    /**
+     * Queue an async light computation for a chunk. A previously queued computation of the same chunk is cancelled,
+     * as its result would be discarded anyway. If the light queue is full, a chunk which is marked as pending stays marked,
+     * as it may still have placeholder light.
+     *
+     * @return The queued job or null if the light queue is full
+     */
+    private GlobalLightCache.LightJob submitLightJob(final long chunkKey, final Runnable task) {
+        final GlobalLightCache.LightJob previousJob = this.lightJobs.remove(chunkKey);
+        if (previousJob != null) {
+            previousJob.cancel();
+        }
+        final GlobalLightCache.LightJob job = GlobalLightCache.getInstance().submitAsync(task);
+        if (job != null) {
+            this.lightJobs.put(chunkKey, job);
+            this.pendingAsyncLight.add(chunkKey);
+        }
+        return job;
+    }
+
+    private void cancelLightJob(final long chunkKey) {
+        this.pendingAsyncLight.remove(chunkKey);
+        final GlobalLightCache.LightJob job = this.lightJobs.remove(chunkKey);
+        if (job != null) {
+            job.cancel();
         }
     }
 
@@ -563,43 +638,19 @@ public class AsyncLightEngine implements ChunkLightProvider {
      * Send a LIGHT_UPDATE packet to update a chunk's light without resending block data.
      */
     private void sendLightUpdate(final int chunkX, final int chunkZ, final byte[][] skyLight, final byte[][] blockLight) {
-        final int lightSectionCount = skyLight.length;
-
-        final BitSet skyLightMask = new BitSet();
-        final BitSet blockLightMask = new BitSet();
-        final BitSet emptySkyLightMask = new BitSet();
-        final BitSet emptyBlockLightMask = new BitSet();
-
-        final List<byte[]> skyLightArrays = new ArrayList<>();
-        final List<byte[]> blockLightArrays = new ArrayList<>();
-
-        for (int i = 0; i < lightSectionCount; i++) {
-            skyLightMask.set(i);
-            skyLightArrays.add(skyLight[i]);
-
-            if (blockLight[i] != null) {
-                blockLightMask.set(i);
-                blockLightArrays.add(blockLight[i]);
-            } else {
-                emptyBlockLightMask.set(i);
-            }
-        }
+        final BitSet allSections = new BitSet();
+        allSections.set(0, skyLight.length);
+        this.sendLightUpdate(chunkX, chunkZ, skyLight, blockLight, allSections, allSections);
+    }
 
+    /**
+     * Send a LIGHT_UPDATE packet containing only the given light sections. Sections not included in the masks are kept by the client.
+     */
+    private void sendLightUpdate(final int chunkX, final int chunkZ, final byte[][] skyLight, final byte[][] blockLight, final BitSet skyLightSections, final BitSet blockLightSections) {
         final PacketWrapper lightUpdate = PacketWrapper.create(ClientboundPackets1_21_11.LIGHT_UPDATE, this.user);
         lightUpdate.write(Types.VAR_INT, chunkX); // chunk x
         lightUpdate.write(Types.VAR_INT, chunkZ); // chunk z
-        lightUpdate.write(Types.LONG_ARRAY_PRIMITIVE, skyLightMask.toLongArray()); // sky light mask
-        lightUpdate.write(Types.LONG_ARRAY_PRIMITIVE, blockLightMask.toLongArray()); // block light mask
-        lightUpdate.write(Types.LONG_ARRAY_PRIMITIVE, emptySkyLightMask.toLongArray()); // empty sky light mask
-        lightUpdate.write(Types.LONG_ARRAY_PRIMITIVE, emptyBlockLightMask.toLongArray()); // empty block light mask
-        lightUpdate.write(Types.VAR_INT, skyLightArrays.size()); // sky light length
-        for (byte[] array : skyLightArrays) {
-            lightUpdate.write(Types.BYTE_ARRAY_PRIMITIVE, array); // sky light
-        }
-        lightUpdate.write(Types.VAR_INT, blockLightArrays.size()); // block light length
-        for (byte[] array : blockLightArrays) {
-            lightUpdate.write(Types.BYTE_ARRAY_PRIMITIVE, array); // block light
-        }
+        LightSections.write(lightUpdate, skyLight, blockLight, skyLightSections, blockLightSections);
         lightUpdate.send(BedrockProtocol.class);
     }
 
@@ -609,7 +660,7 @@ public class AsyncLightEngine implements ChunkLightProvider {
         return (sectionIdx << 12) | (z << 8) | (y << 4) | x;
     }
 
-    private static int getNibble(final byte[] lightArray, final int x, final int y, final int z) {
+    static int getNibble(final byte[] lightArray, final int x, final int y, final int z) {
         final int index = (y << 8) | (z << 4) | x;
         final int byteIndex = index >> 1;
         if ((index & 1) == 0) {
@@ -619,7 +670,7 @@ public class AsyncLightEngine implements ChunkLightProvider {
         }
     }
 
-    private static void setNibble(final byte[] lightArray, final int x, final int y, final int z, final int value) {
+    static void setNibble(final byte[] lightArray, final int x, final int y, final int z, final int value) {
         final int index = (y << 8) | (z << 4) | x;
         final int byteIndex = index >> 1;
         if ((index & 1) == 0) {
@@ -740,4 +791,7 @@ public class AsyncLightEngine implements ChunkLightProvider {
         }
     }
 
+    record BlockChange(int x, int y, int z, int blockState) {
+    }
+
 }
@@ -17,6 +17,7 @@
  */
 package net.raphimc.viabedrock.experimental.light;
 
+import com.viaversion.viaversion.api.minecraft.BlockPosition;
 import com.viaversion.viaversion.api.minecraft.chunks.Chunk;
 import net.raphimc.viabedrock.protocol.storage.ChunkTracker;
 
@@ -45,6 +46,17 @@ public interface ChunkLightProvider {
      */
     void onChunkUnload(long chunkKey);
 
+    /**
+     * Called when a single block of an already sent chunk changed.
+     * Implementations can use this to relight the affected area without resending the chunk.
+     *
+     * @param tracker        the chunk tracker for the current connection
+     * @param position       the position of the changed block
+     * @param javaBlockState the new remapped Java block state
+     */
+    default void onBlockChange(ChunkTracker tracker, BlockPosition position, int javaBlockState) {
+    }
+
     /**
      * Called once per tick to process pending async light updates.
      */
@@ -17,74 +17,231 @@
  */
 package net.raphimc.viabedrock.experimental.light;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.viaversion.viaversion.libs.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.raphimc.viabedrock.ViaBedrock;
 
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Light cache and worker pool shared by all connections.
+ * <p>
+ * Cached light arrays are shared between the cache and all connections using them and must not be modified.
+ * The cache is bounded by the total byte size of the light arrays and evicts the least recently used entries.
+ */
 public final class GlobalLightCache {
 
     private static final GlobalLightCache INSTANCE = new GlobalLightCache();
-    private static final int MAX_ENTRIES = 4096;
-    private static final int LIGHT_COMPUTE_THREADS = 2;
+    private static final int ENTRY_OVERHEAD = 64; // Approximate size of the map entry and array headers
 
     public static GlobalLightCache getInstance() {
         return INSTANCE;
     }
 
-    private final ConcurrentHashMap<Long, LightCacheEntry> cache = new ConcurrentHashMap<>();
-    private final ExecutorService executor = Executors.newFixedThreadPool(LIGHT_COMPUTE_THREADS, r -> {
-        final Thread t = new Thread(r, "ViaBedrock-LightCompute");
-        t.setDaemon(true);
-        return t;
-    });
+    private final Long2ObjectLinkedOpenHashMap<LightCacheEntry> cache = new Long2ObjectLinkedOpenHashMap<>();
+    private long size;
+    private ThreadPoolExecutor executor;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejectedJobs = new LongAdder();
 
     private GlobalLightCache() {
     }
 
-    public void submitAsync(final Runnable task) {
-        this.executor.submit(task);
+    /**
+     * Queues a light computation. If the queue is full, cancelled jobs are removed from it before giving up.
+     *
+     * @param task The light computation
+     * @return The queued job which can be cancelled once its result is no longer needed, or null if the queue is full
+     */
+    public LightJob submitAsync(final Runnable task) {
+        final LightJob job = new LightJob(task);
+        final ThreadPoolExecutor executor = this.getExecutor();
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            executor.getQueue().removeIf(r -> ((LightJob) r).isCancelled());
+            try {
+                executor.execute(job);
+            } catch (RejectedExecutionException e2) {
+                this.rejectedJobs.increment();
+                return null;
+            }
+        }
+        return job;
     }
 
-    public record LightCacheEntry(byte[][] skyLight, byte[][] blockLight, long timestamp) {
+    public record LightCacheEntry(byte[][] skyLight, byte[][] blockLight) {
+
+        private long weight() {
+            return ENTRY_OVERHEAD + weight(this.skyLight) + weight(this.blockLight);
+        }
+
+        private static long weight(final byte[][] data) {
+            if (data == null) return 0;
+            long weight = data.length * 8L;
+            for (byte[] section : data) {
+                if (section != null) {
+                    weight += section.length + 16;
+                }
+            }
+            return weight;
+        }
+
     }
 
+    /**
+     * Returns the cached light and marks it as most recently used.
+     *
+     * @param key The light cache key
+     * @return The cached light or null if it isn't cached. The arrays must not be modified.
+     */
     public LightCacheEntry get(final long key) {
-        final LightCacheEntry entry = this.cache.get(key);
-        if (entry == null) return null;
-        return new LightCacheEntry(deepCopy(entry.skyLight), deepCopy(entry.blockLight), entry.timestamp);
+        final LightCacheEntry entry;
+        synchronized (this.cache) {
+            entry = this.cache.getAndMoveToLast(key);
+        }
+        if (entry != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return entry;
     }
 
+    /**
+     * Caches the given light. The arrays are stored without copying and must not be modified afterward.
+     *
+     * @param key        The light cache key
+     * @param skyLight   The sky light
+     * @param blockLight The block light
+     */
     public void put(final long key, final byte[][] skyLight, final byte[][] blockLight) {
-        if (this.cache.size() >= MAX_ENTRIES) {
-            this.evictOldest();
+        final long maxSize = ViaBedrock.getConfig().getLightCacheSize() * 1024L * 1024L;
+        final LightCacheEntry entry = new LightCacheEntry(skyLight, blockLight);
+        final long weight = entry.weight();
+        if (weight > maxSize) return;
+
+        int evictedCount = 0;
+        synchronized (this.cache) {
+            final LightCacheEntry previous = this.cache.putAndMoveToLast(key, entry);
+            if (previous != null) {
+                this.size -= previous.weight();
+            }
+            this.size += weight;
+            while (this.size > maxSize) {
+                this.size -= this.cache.removeFirst().weight();
+                evictedCount++;
+            }
         }
-        this.cache.put(key, new LightCacheEntry(deepCopy(skyLight), deepCopy(blockLight), System.currentTimeMillis()));
+        this.evictions.add(evictedCount);
     }
 
     public void invalidate(final long key) {
-        this.cache.remove(key);
+        synchronized (this.cache) {
+            final LightCacheEntry entry = this.cache.remove(key);
+            if (entry != null) {
+                this.size -= entry.weight();
+            }
+        }
     }
 
     public void clear() {
-        this.cache.clear();
+        synchronized (this.cache) {
+            this.cache.clear();
+            this.size = 0;
+        }
+    }
+
+    /**
+     * @return The amount of bytes used by the cached light
+     */
+    public long getSize() {
+        synchronized (this.cache) {
+            return this.size;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized (this.cache) {
+            return this.cache.size();
+        }
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
     }
 
-    private void evictOldest() {
-        final long cutoff = this.cache.values().stream()
-                .mapToLong(LightCacheEntry::timestamp)
-                .sorted()
-                .skip(MAX_ENTRIES / 4)
-                .findFirst().orElse(Long.MAX_VALUE);
-        this.cache.entrySet().removeIf(e -> e.getValue().timestamp < cutoff);
+    /**
+     * @return The ratio of cache hits to all lookups or 0 if there were no lookups yet
+     */
+    public double getHitRate() {
+        final long hits = this.hits.sum();
+        final long lookups = hits + this.misses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
     }
 
-    private static byte[][] deepCopy(final byte[][] data) {
-        if (data == null) return null;
-        final byte[][] copy = new byte[data.length][];
-        for (int i = 0; i < data.length; i++) {
-            copy[i] = data[i] != null ? data[i].clone() : null;
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return The amount of light computations which didn't fit into the queue
+     */
+    public long getRejectedJobs() {
+        return this.rejectedJobs.sum();
+    }
+
+    /**
+     * @return The amount of light computations waiting for a worker thread
+     */
+    public int getQueueDepth() {
+        return this.getExecutor().getQueue().size();
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (this.executor == null) {
+            final int threads = Math.max(1, ViaBedrock.getConfig().getLightComputeThreads());
+            final int queueSize = Math.max(1, ViaBedrock.getConfig().getLightComputeQueueSize());
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueSize), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ViaBedrock-LightCompute-%d").build());
         }
-        return copy;
+        return this.executor;
+    }
+
+    /**
+     * A queued light computation. Cancelled jobs are skipped by the workers and removed from the queue when it runs full.
+     */
+    public static final class LightJob implements Runnable {
+
+        private final Runnable task;
+        private volatile boolean cancelled;
+
+        private LightJob(final Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (!this.cancelled) {
+                this.task.run();
+            }
+        }
+
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+
     }
 
 }
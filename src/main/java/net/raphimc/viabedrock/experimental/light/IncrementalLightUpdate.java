@@ -0,0 +1,380 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.experimental.light;
+
+import com.viaversion.viaversion.api.minecraft.ChunkPosition;
+import com.viaversion.viaversion.api.minecraft.chunks.ChunkSection;
+import com.viaversion.viaversion.api.minecraft.chunks.ChunkSectionImpl;
+import com.viaversion.viaversion.api.minecraft.chunks.ChunkSectionLight;
+import com.viaversion.viaversion.api.minecraft.chunks.DataPalette;
+import com.viaversion.viaversion.api.minecraft.chunks.PaletteType;
+import com.viaversion.viaversion.libs.fastutil.ints.IntArrayFIFOQueue;
+import com.viaversion.viaversion.libs.fastutil.longs.*;
+import net.raphimc.viabedrock.protocol.BedrockProtocol;
+import net.raphimc.viabedrock.protocol.data.BedrockMappingData;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * Relights the area around changed blocks using a BFS decrease/increase propagation instead of recomputing whole chunks.
+ * <p>
+ * The light and section arrays of the engine may still be read by async light computations of neighboring chunks,
+ * so every touched section is copied before it is modified and the copies are published once the update is done.
+ */
+final class IncrementalLightUpdate {
+
+    private static final int[][] DIRECTIONS = {{-1, 0, 0}, {1, 0, 0}, {0, -1, 0}, {0, 1, 0}, {0, 0, -1}, {0, 0, 1}};
+
+    private final Map<Long, ChunkSection[]> cachedSections;
+    private final Map<Long, byte[][]> cachedSkyLight;
+    private final Map<Long, byte[][]> cachedBlockLight;
+    private final LongPredicate canUpdate;
+    private final BedrockMappingData mappings = BedrockProtocol.MAPPINGS;
+    private final Long2ObjectMap<ChunkState> chunks = new Long2ObjectOpenHashMap<>();
+    private final Long2ObjectMap<int[]> columns = new Long2ObjectOpenHashMap<>();
+
+    IncrementalLightUpdate(final Map<Long, ChunkSection[]> cachedSections, final Map<Long, byte[][]> cachedSkyLight, final Map<Long, byte[][]> cachedBlockLight, final LongPredicate canUpdate) {
+        this.cachedSections = cachedSections;
+        this.cachedSkyLight = cachedSkyLight;
+        this.cachedBlockLight = cachedBlockLight;
+        this.canUpdate = canUpdate;
+    }
+
+    /**
+     * Applies the block changes to the cached sections and relights the affected area.
+     *
+     * @param changes The block changes. y is relative to the bottom of the world
+     */
+    void apply(final List<AsyncLightEngine.BlockChange> changes) {
+        // The same block can change multiple times in one batch. Only its last state matters, compared against the state before the batch.
+        final Long2IntMap lastStates = new Long2IntLinkedOpenHashMap();
+        for (AsyncLightEngine.BlockChange change : changes) {
+            final ChunkState chunk = this.chunk(change.x(), change.z());
+            if (chunk == null || change.y() < 0 || change.y() >= chunk.height()) continue;
+
+            lastStates.put(pack(change.x(), change.y(), change.z()), change.blockState());
+        }
+        final LongList changedPositions = new LongArrayList();
+        final IntArrayFIFOQueue changedStates = new IntArrayFIFOQueue();
+        for (Long2IntMap.Entry entry : lastStates.long2IntEntrySet()) {
+            final long pos = entry.getLongKey();
+            final int x = unpackX(pos);
+            final int z = unpackZ(pos);
+            if (this.blockState(this.chunk(x, z), x, unpackY(pos), z) == entry.getIntValue()) continue;
+
+            changedPositions.add(pos);
+            changedStates.enqueue(entry.getIntValue());
+        }
+        if (changedPositions.isEmpty()) return;
+
+        // Sky light sources are the light columns falling down from the top of the world. Remember them before changing any blocks.
+        final Long2ObjectMap<int[]> oldColumns = new Long2ObjectOpenHashMap<>();
+        for (long pos : changedPositions) {
+            final int x = unpackX(pos);
+            final int z = unpackZ(pos);
+            oldColumns.computeIfAbsent(columnKey(x, z), k -> this.computeColumn(x, z));
+        }
+        for (long pos : changedPositions) {
+            this.setBlockState(unpackX(pos), unpackY(pos), unpackZ(pos), changedStates.dequeueInt());
+        }
+
+        final LongArrayFIFOQueue decrease = new LongArrayFIFOQueue();
+        final IntArrayFIFOQueue decreaseLevels = new IntArrayFIFOQueue();
+        final LongArrayFIFOQueue increase = new LongArrayFIFOQueue();
+        final LongList seeds = new LongArrayList();
+
+        // Sky light
+        seeds.addAll(changedPositions);
+        for (Long2ObjectMap.Entry<int[]> entry : oldColumns.long2ObjectEntrySet()) {
+            final int x = (int) (entry.getLongKey() >> 32);
+            final int z = (int) entry.getLongKey();
+            final int[] oldColumn = entry.getValue();
+            final int[] newColumn = this.column(x, z);
+            for (int y = 0; y < newColumn.length; y++) {
+                if (newColumn[y] < oldColumn[y]) {
+                    seeds.add(pack(x, y, z));
+                } else if (newColumn[y] > oldColumn[y] && newColumn[y] > this.getLight(true, x, y, z)) {
+                    this.setLight(true, x, y, z, newColumn[y]);
+                    increase.enqueue(pack(x, y, z));
+                }
+            }
+        }
+        this.propagate(true, seeds, decrease, decreaseLevels, increase);
+
+        // Block light
+        seeds.clear();
+        seeds.addAll(changedPositions);
+        this.propagate(false, seeds, decrease, decreaseLevels, increase);
+    }
+
+    /**
+     * Publishes the modified sections and light arrays to the engine.
+     *
+     * @param sender Called for every chunk with modified light
+     */
+    void commit(final LightUpdateSender sender) {
+        for (Long2ObjectMap.Entry<ChunkState> entry : this.chunks.long2ObjectEntrySet()) {
+            final ChunkState chunk = entry.getValue();
+            if (chunk == null) continue;
+
+            final long chunkKey = entry.getLongKey();
+            if (!chunk.copiedSections.isEmpty()) {
+                this.cachedSections.put(chunkKey, chunk.sections);
+            }
+            if (!chunk.copiedSkyLight.isEmpty() || !chunk.copiedBlockLight.isEmpty()) {
+                this.cachedSkyLight.put(chunkKey, chunk.skyLight);
+                this.cachedBlockLight.put(chunkKey, chunk.blockLight);
+                sender.send(chunk.chunkX, chunk.chunkZ, chunk.skyLight, chunk.blockLight, chunk.copiedSkyLight, chunk.copiedBlockLight);
+            }
+        }
+    }
+
+    private void propagate(final boolean sky, final LongList seeds, final LongArrayFIFOQueue decrease, final IntArrayFIFOQueue decreaseLevels, final LongArrayFIFOQueue increase) {
+        final LongList removed = new LongArrayList();
+        for (long pos : seeds) {
+            final int level = this.getLight(sky, unpackX(pos), unpackY(pos), unpackZ(pos));
+            if (level < 0) continue;
+            this.setLight(sky, unpackX(pos), unpackY(pos), unpackZ(pos), 0);
+            decrease.enqueue(pos);
+            decreaseLevels.enqueue(level);
+            removed.add(pos);
+        }
+
+        // Remove all light which could have been derived from the seeds. Brighter light at the border is spread back in afterwards.
+        while (!decrease.isEmpty()) {
+            final long pos = decrease.dequeueLong();
+            final int level = decreaseLevels.dequeueInt();
+            final int x = unpackX(pos);
+            final int y = unpackY(pos);
+            final int z = unpackZ(pos);
+            for (int[] dir : DIRECTIONS) {
+                final int nx = x + dir[0];
+                final int ny = y + dir[1];
+                final int nz = z + dir[2];
+                final int neighborLevel = this.getLight(sky, nx, ny, nz);
+                if (neighborLevel <= 0) continue;
+
+                final long neighborPos = pack(nx, ny, nz);
+                if (neighborLevel < level) {
+                    this.setLight(sky, nx, ny, nz, 0);
+                    decrease.enqueue(neighborPos);
+                    decreaseLevels.enqueue(neighborLevel);
+                    removed.add(neighborPos);
+                } else {
+                    increase.enqueue(neighborPos);
+                }
+            }
+        }
+
+        // Restore the light sources in the removed area
+        for (long pos : removed) {
+            final int x = unpackX(pos);
+            final int y = unpackY(pos);
+            final int z = unpackZ(pos);
+            final int source = sky ? this.column(x, z)[y] : this.mappings.getEmitLight(this.blockState(this.chunk(x, z), x, y, z));
+            if (source > this.getLight(sky, x, y, z)) {
+                this.setLight(sky, x, y, z, source);
+                increase.enqueue(pos);
+            }
+        }
+
+        while (!increase.isEmpty()) {
+            final long pos = increase.dequeueLong();
+            final int x = unpackX(pos);
+            final int y = unpackY(pos);
+            final int z = unpackZ(pos);
+            final int level = this.getLight(sky, x, y, z);
+            if (level <= 1) continue;
+
+            for (int[] dir : DIRECTIONS) {
+                final int nx = x + dir[0];
+                final int ny = y + dir[1];
+                final int nz = z + dir[2];
+                final ChunkState neighborChunk = this.chunk(nx, nz);
+                if (neighborChunk == null || ny < 0 || ny >= neighborChunk.height()) continue;
+
+                final int newLevel = level - Math.max(1, this.mappings.getFilterLight(this.blockState(neighborChunk, nx, ny, nz)));
+                if (newLevel > this.getLight(sky, nx, ny, nz)) {
+                    this.setLight(sky, nx, ny, nz, newLevel);
+                    increase.enqueue(pack(nx, ny, nz));
+                }
+            }
+        }
+    }
+
+    private int[] column(final int x, final int z) {
+        final long key = columnKey(x, z);
+        int[] column = this.columns.get(key);
+        if (column == null) {
+            this.columns.put(key, column = this.computeColumn(x, z));
+        }
+        return column;
+    }
+
+    /**
+     * Computes the sky light falling straight down the given column the same way the full chunk computation does.
+     */
+    private int[] computeColumn(final int x, final int z) {
+        final ChunkState chunk = this.chunk(x, z);
+        final int[] column = new int[chunk.height()];
+        int level = 15;
+        for (int y = column.length - 1; y >= 0; y--) {
+            if (level > 0) {
+                final int filter = this.mappings.getFilterLight(this.blockState(chunk, x, y, z));
+                if (filter > 0) {
+                    level = Math.max(0, level - Math.max(1, filter));
+                }
+            }
+            column[y] = level;
+        }
+        return column;
+    }
+
+    private ChunkState chunk(final int x, final int z) {
+        final long chunkKey = ChunkPosition.chunkKey(x >> 4, z >> 4);
+        if (this.chunks.containsKey(chunkKey)) {
+            return this.chunks.get(chunkKey);
+        }
+
+        ChunkState chunk = null;
+        if (this.canUpdate.test(chunkKey)) {
+            final ChunkSection[] sections = this.cachedSections.get(chunkKey);
+            final byte[][] skyLight = this.cachedSkyLight.get(chunkKey);
+            final byte[][] blockLight = this.cachedBlockLight.get(chunkKey);
+            if (sections != null && skyLight != null && blockLight != null) {
+                chunk = new ChunkState(x >> 4, z >> 4, sections.clone(), skyLight.clone(), blockLight.clone());
+            }
+        }
+        this.chunks.put(chunkKey, chunk); // Unavailable chunks are cached as null
+        return chunk;
+    }
+
+    private int blockState(final ChunkState chunk, final int x, final int y, final int z) {
+        final ChunkSection section = chunk.sections[y >> 4];
+        if (section == null) return 0;
+        return section.palette(PaletteType.BLOCKS).idAt(x & 15, y & 15, z & 15);
+    }
+
+    private void setBlockState(final int x, final int y, final int z, final int blockState) {
+        final ChunkState chunk = this.chunk(x, z);
+        final int sectionIndex = y >> 4;
+        if (!chunk.copiedSections.get(sectionIndex)) {
+            chunk.sections[sectionIndex] = copySection(chunk.sections[sectionIndex]);
+            chunk.copiedSections.set(sectionIndex);
+        }
+        chunk.sections[sectionIndex].palette(PaletteType.BLOCKS).setIdAt(x & 15, y & 15, z & 15, blockState);
+    }
+
+    /**
+     * @return The light level or -1 if the position is outside the updatable area
+     */
+    private int getLight(final boolean sky, final int x, final int y, final int z) {
+        final ChunkState chunk = this.chunk(x, z);
+        if (chunk == null || y < 0 || y >= chunk.height()) return -1;
+
+        final byte[] light = (sky ? chunk.skyLight : chunk.blockLight)[(y >> 4) + 1]; // +1 for the section below the world
+        if (light == null) return 0;
+        return AsyncLightEngine.getNibble(light, x & 15, y & 15, z & 15);
+    }
+
+    private void setLight(final boolean sky, final int x, final int y, final int z, final int level) {
+        final ChunkState chunk = this.chunk(x, z);
+        final int lightIndex = (y >> 4) + 1;
+        final byte[][] lightData = sky ? chunk.skyLight : chunk.blockLight;
+        final BitSet copied = sky ? chunk.copiedSkyLight : chunk.copiedBlockLight;
+        if (!copied.get(lightIndex)) {
+            lightData[lightIndex] = lightData[lightIndex] != null ? lightData[lightIndex].clone() : new byte[ChunkSectionLight.LIGHT_LENGTH];
+            copied.set(lightIndex);
+        }
+        AsyncLightEngine.setNibble(lightData[lightIndex], x & 15, y & 15, z & 15, level);
+    }
+
+    private static ChunkSection copySection(final ChunkSection section) {
+        final ChunkSection copy = new ChunkSectionImpl(false);
+        final DataPalette target = copy.palette(PaletteType.BLOCKS);
+        if (section == null) {
+            target.addId(0);
+            return copy;
+        }
+
+        final DataPalette source = section.palette(PaletteType.BLOCKS);
+        for (int i = 0; i < source.size(); i++) {
+            target.addId(source.idByIndex(i));
+        }
+        for (int i = 0; i < ChunkSection.SIZE; i++) {
+            target.setPaletteIndexAt(i, source.paletteIndexAt(i));
+        }
+        return copy;
+    }
+
+    private static long pack(final int x, final int y, final int z) {
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | (y & 0xFFF);
+    }
+
+    private static int unpackX(final long pos) {
+        return (int) (pos >> 38);
+    }
+
+    private static int unpackY(final long pos) {
+        return (int) (pos & 0xFFF);
+    }
+
+    private static int unpackZ(final long pos) {
+        return (int) (pos << 26 >> 38);
+    }
+
+    private static long columnKey(final int x, final int z) {
+        return (long) x << 32 | (z & 0xFFFFFFFFL);
+    }
+
+    @FunctionalInterface
+    interface LightUpdateSender {
+
+        void send(int chunkX, int chunkZ, byte[][] skyLight, byte[][] blockLight, BitSet skyLightSections, BitSet blockLightSections);
+
+    }
+
+    private static final class ChunkState {
+
+        private final int chunkX;
+        private final int chunkZ;
+        private final ChunkSection[] sections;
+        private final byte[][] skyLight;
+        private final byte[][] blockLight;
+        private final BitSet copiedSections = new BitSet();
+        private final BitSet copiedSkyLight = new BitSet();
+        private final BitSet copiedBlockLight = new BitSet();
+
+        private ChunkState(final int chunkX, final int chunkZ, final ChunkSection[] sections, final byte[][] skyLight, final byte[][] blockLight) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.sections = sections;
+            this.skyLight = skyLight;
+            this.blockLight = blockLight;
+        }
+
+        private int height() {
+            return this.sections.length << 4;
+        }
+
+    }
+
+}
@@ -19,10 +19,15 @@ package net.raphimc.viabedrock.experimental.resourcepack;
 
 import net.raphimc.viabedrock.api.model.resourcepack.ResourcePack;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
@@ -57,10 +62,40 @@ public class JavaPackCache {
         return Files.readAllBytes(getZipFile(cacheKey).toPath());
     }
 
+    public File getFile(final String cacheKey) {
+        return getZipFile(cacheKey);
+    }
+
+    /**
+     * Stores the pack. The files are written to a temporary location first, so that the pack can be served from disk while another one is written.
+     */
     public void put(final String cacheKey, final byte[] zipData) throws IOException {
-        final String hash = sha1Hex(zipData);
-        Files.write(getZipFile(cacheKey).toPath(), zipData);
-        Files.writeString(getHashFile(cacheKey).toPath(), hash, StandardCharsets.UTF_8);
+        this.put(cacheKey, outputStream -> outputStream.write(zipData));
+    }
+
+    /**
+     * Stores the content as pack. The zip file is streamed to disk instead of being built in memory first.
+     */
+    public void put(final String cacheKey, final ResourcePack.Content content) throws IOException {
+        this.put(cacheKey, content::writeZip);
+    }
+
+    private void put(final String cacheKey, final ZipSource zipSource) throws IOException {
+        final Path tempZipFile = Files.createTempFile(this.cacheFolder.toPath(), cacheKey, ".zip.tmp");
+        final Path tempHashFile = Files.createTempFile(this.cacheFolder.toPath(), cacheKey, ".sha1.tmp");
+        try {
+            final MessageDigest digest = newSha1();
+            try (final OutputStream outputStream = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(tempZipFile)), digest)) {
+                zipSource.write(outputStream);
+            }
+            final String hash = hex(digest.digest());
+            Files.writeString(tempHashFile, hash, StandardCharsets.UTF_8);
+            Files.move(tempZipFile, getZipFile(cacheKey).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tempHashFile, getHashFile(cacheKey).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempZipFile);
+            Files.deleteIfExists(tempHashFile);
+        }
     }
 
     private File getZipFile(final String cacheKey) {
@@ -72,17 +107,30 @@ public class JavaPackCache {
     }
 
     private static String sha1Hex(final byte[] data) {
+        return hex(newSha1().digest(data));
+    }
+
+    private static MessageDigest newSha1() {
         try {
-            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            final byte[] hash = digest.digest(data);
-            final StringBuilder sb = new StringBuilder(hash.length * 2);
-            for (byte b : hash) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static String hex(final byte[] hash) {
+        final StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    @FunctionalInterface
+    private interface ZipSource {
+
+        void write(final OutputStream outputStream) throws IOException;
+
+    }
+
 }
@@ -18,9 +18,11 @@
 package net.raphimc.viabedrock.netty;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
 import net.raphimc.viabedrock.ViaBedrock;
+import net.raphimc.viabedrock.api.io.compression.AdaptiveCompressionPolicy;
 import net.raphimc.viabedrock.api.io.compression.CompressionAlgorithm;
 import net.raphimc.viabedrock.api.io.compression.NoopCompression;
 import net.raphimc.viabedrock.api.io.compression.ProtocolCompression;
@@ -45,50 +47,76 @@ public class CompressionCodec extends ByteToMessageCodec<ByteBuf> {
 
     @Override
     protected void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) throws Exception {
+        compressBatch(ctx, this.protocolCompression, in, out);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        final ByteBuf uncompressedData = decompressBatch(ctx.alloc(), this.protocolCompression, in);
+        if (uncompressedData != null) {
+            out.add(uncompressedData);
+        }
+    }
+
+    static void compressBatch(final ChannelHandlerContext ctx, final ProtocolCompression protocolCompression, final ByteBuf in, final ByteBuf out) throws Exception {
         if (!in.isReadable()) {
             return;
         }
 
         final int inputSize = in.readableBytes();
-        final CompressionAlgorithm compressionAlgorithm = this.protocolCompression.getCompressionAlgorithmForSize(inputSize);
-        if (compressionAlgorithm instanceof NoopCompression) {
+        final CompressionAlgorithm compressionAlgorithm = protocolCompression.getCompressionAlgorithmForSize(inputSize);
+        final AdaptiveCompressionPolicy compressionPolicy = protocolCompression.getCompressionPolicy();
+        if (compressionAlgorithm instanceof NoopCompression || !compressionPolicy.shouldCompress(inputSize)) {
             out.writeByte(PacketCompressionAlgorithm.None.getValue());
             out.writeBytes(in);
         } else {
-            in.markReaderIndex();
-            final ByteBuf compressedData = ctx.alloc().buffer();
-            compressionAlgorithm.compress(in, compressedData);
-            if (compressedData.readableBytes() < inputSize) {
-                out.writeByte(compressionAlgorithm.getAlgorithm().getValue());
-                out.writeBytes(compressedData);
-            } else {
-                in.resetReaderIndex();
+            final int inputIndex = in.readerIndex();
+            final int outputIndex = out.writerIndex();
+            out.writeByte(compressionAlgorithm.getAlgorithm().getValue());
+            compressionAlgorithm.compress(in, out, compressionPolicy.getCompressionLevel(ctx.executor())); // Compress directly into the output and roll back if it didn't shrink
+            final int compressedSize = out.writerIndex() - outputIndex - 1;
+            compressionPolicy.recordResult(inputSize, compressedSize);
+            if (compressedSize >= inputSize) {
+                in.readerIndex(inputIndex);
+                out.writerIndex(outputIndex);
                 out.writeByte(PacketCompressionAlgorithm.None.getValue());
                 out.writeBytes(in);
             }
-            compressedData.release();
         }
     }
 
-    @Override
-    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+    /**
+     * Decompresses a batch. The decompressed size is limited by {@link net.raphimc.viabedrock.platform.ViaBedrockConfig#getMaxDecompressedBatchSize()}.
+     *
+     * @param alloc               The allocator to use for the decompressed data
+     * @param protocolCompression The protocol compression
+     * @param in                  The compressed batch
+     * @return A retained buffer containing the decompressed batch or null if the batch should be dropped
+     * @throws Exception If the batch could not be decompressed
+     */
+    static ByteBuf decompressBatch(final ByteBufAllocator alloc, final ProtocolCompression protocolCompression, final ByteBuf in) throws Exception {
         if (!in.isReadable()) {
-            return;
+            return null;
         }
 
         final PacketCompressionAlgorithm algorithm = PacketCompressionAlgorithm.getByValue(in.readUnsignedByte());
         if (algorithm == null) { // Bedrock client just drops the packet if it doesn't know the algorithm
             ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Received unknown compression algorithm. Dropping packet.");
-            return;
+            return null;
         }
 
-        final CompressionAlgorithm compressionAlgorithm = this.protocolCompression.getCompressionAlgorithm(algorithm);
+        final CompressionAlgorithm compressionAlgorithm = protocolCompression.getCompressionAlgorithm(algorithm);
         if (compressionAlgorithm instanceof NoopCompression) {
-            out.add(in.retain());
+            return in.retain();
         } else {
-            final ByteBuf uncompressedData = ctx.alloc().buffer();
-            compressionAlgorithm.decompress(in, uncompressedData); // Bedrock client would drop packets with invalid data, but this would be too insane to do
-            out.add(uncompressedData);
+            final ByteBuf uncompressedData = alloc.buffer();
+            try {
+                compressionAlgorithm.decompress(in, uncompressedData, ViaBedrock.getConfig().getMaxDecompressedBatchSize()); // Bedrock client would drop packets with invalid data, but this would be too insane to do
+            } catch (Throwable e) {
+                uncompressedData.release();
+                throw e;
+            }
+            return uncompressedData;
         }
     }
 
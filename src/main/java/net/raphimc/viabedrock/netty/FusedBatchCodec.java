@@ -0,0 +1,109 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+import net.raphimc.viabedrock.api.io.compression.ProtocolCompression;
+import net.raphimc.viabedrock.protocol.types.BedrockTypes;
+
+import java.util.List;
+
+/**
+ * Single pipeline stage which replaces {@link CompressionCodec}, {@link BatchLengthCodec} and {@link PacketCodec}.<br>
+ * Inbound batches are decompressed once and the contained packets are emitted as slices of the decompressed batch.
+ */
+public class FusedBatchCodec extends MessageToMessageCodec<ByteBuf, ByteBuf> {
+
+    public static final String NAME = "viabedrock-fused-batch-codec";
+
+    private ProtocolCompression protocolCompression;
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        super.handlerRemoved(ctx);
+        if (this.protocolCompression != null) {
+            this.protocolCompression.end();
+        }
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        final ByteBuf packet = PacketCodec.encodePacket(ctx.alloc(), in);
+        final ByteBuf lengthBuffer = ctx.alloc().buffer(5);
+        BedrockTypes.UNSIGNED_VAR_INT.writePrimitive(lengthBuffer, packet.readableBytes());
+        final CompositeByteBuf batch = ctx.alloc().compositeBuffer(2);
+        batch.addComponent(true, lengthBuffer);
+        batch.addComponent(true, packet);
+        if (this.protocolCompression == null) {
+            out.add(batch);
+            return;
+        }
+
+        try {
+            final ByteBuf compressedBatch = ctx.alloc().buffer();
+            try {
+                CompressionCodec.compressBatch(ctx, this.protocolCompression, batch, compressedBatch);
+            } catch (Throwable e) {
+                compressedBatch.release();
+                throw e;
+            }
+            out.add(compressedBatch);
+        } finally {
+            batch.release();
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        final ByteBuf batch;
+        if (this.protocolCompression != null) {
+            batch = CompressionCodec.decompressBatch(ctx.alloc(), this.protocolCompression, in);
+            if (batch == null) {
+                return;
+            }
+        } else {
+            batch = in.retain();
+        }
+
+        try {
+            while (batch.isReadable()) {
+                final int length = BedrockTypes.UNSIGNED_VAR_INT.readPrimitive(batch);
+                out.add(PacketCodec.decodePacket(ctx.alloc(), batch.readSlice(length)));
+            }
+        } finally {
+            batch.release();
+        }
+    }
+
+    public ProtocolCompression getProtocolCompression() {
+        return this.protocolCompression;
+    }
+
+    /**
+     * Enables compression/decompression for all following batches.
+     *
+     * @param protocolCompression The protocol compression
+     */
+    public void setProtocolCompression(final ProtocolCompression protocolCompression) {
+        this.protocolCompression = protocolCompression;
+    }
+
+}
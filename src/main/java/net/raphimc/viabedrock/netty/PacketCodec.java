@@ -19,26 +19,55 @@ package net.raphimc.viabedrock.netty;
 
 import com.viaversion.viaversion.api.type.Types;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.MessageToMessageCodec;
 import net.raphimc.viabedrock.protocol.types.BedrockTypes;
 
 import java.util.List;
 
-public class PacketCodec extends ByteToMessageCodec<ByteBuf> {
+public class PacketCodec extends MessageToMessageCodec<ByteBuf, ByteBuf> {
 
     public static final String NAME = "viabedrock-packet-codec";
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) {
-        final int packetId = Types.VAR_INT.readPrimitive(in);
-        final int header = packetId & 1023;
-        BedrockTypes.UNSIGNED_VAR_INT.writePrimitive(out, header);
-        out.writeBytes(in);
+    protected void encode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        out.add(encodePacket(ctx.alloc(), in));
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        out.add(decodePacket(ctx.alloc(), in));
+    }
+
+    /**
+     * Rewrites the java packet id of the given packet to a bedrock packet header without copying the payload.
+     *
+     * @param alloc The allocator to use for the header buffer
+     * @param in    The java packet
+     * @return A retained buffer containing the bedrock packet
+     */
+    static ByteBuf encodePacket(final ByteBufAllocator alloc, final ByteBuf in) {
+        final int headerStart = in.readerIndex();
+        final int packetId = Types.VAR_INT.readPrimitive(in);
+        final int header = packetId & 1023;
+        if (header == packetId) { // Java var int and bedrock unsigned var int are encoded the same way for positive values
+            return in.retainedSlice(headerStart, in.writerIndex() - headerStart);
+        } else {
+            return prependHeader(alloc, header, in);
+        }
+    }
+
+    /**
+     * Rewrites the bedrock packet header of the given packet to a java packet id without copying the payload.
+     *
+     * @param alloc The allocator to use for the header buffer
+     * @param in    The bedrock packet
+     * @return A retained buffer containing the java packet
+     */
+    static ByteBuf decodePacket(final ByteBufAllocator alloc, final ByteBuf in) {
+        final int headerStart = in.readerIndex();
         final int header = BedrockTypes.UNSIGNED_VAR_INT.readPrimitive(in);
         final int packetId = header & 1023;
         final int senderId = (header >> 10) & 3;
@@ -47,10 +76,21 @@ public class PacketCodec extends ByteToMessageCodec<ByteBuf> {
             throw new UnsupportedOperationException("Sender ID " + senderId + " is not supported");
         }
 
-        final ByteBuf packetBuffer = ctx.alloc().buffer();
-        Types.VAR_INT.writePrimitive(packetBuffer, packetId);
-        packetBuffer.writeBytes(in);
-        out.add(packetBuffer);
+        if (header == packetId) { // No sub client ids -> The header already is a valid java var int packet id
+            return in.retainedSlice(headerStart, in.writerIndex() - headerStart);
+        } else {
+            return prependHeader(alloc, packetId, in);
+        }
+    }
+
+    private static ByteBuf prependHeader(final ByteBufAllocator alloc, final int header, final ByteBuf payload) {
+        final ByteBuf headerBuffer = alloc.buffer(5);
+        Types.VAR_INT.writePrimitive(headerBuffer, header); // Header is always positive, so this is the same as an unsigned var int
+
+        final CompositeByteBuf buf = alloc.compositeBuffer(2);
+        buf.addComponent(true, headerBuffer);
+        buf.addComponent(true, payload.readRetainedSlice(payload.readableBytes()));
+        return buf;
     }
 
 }
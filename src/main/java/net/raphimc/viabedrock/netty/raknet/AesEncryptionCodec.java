@@ -17,9 +17,7 @@
  */
 package net.raphimc.viabedrock.netty.raknet;
 
-import com.google.common.primitives.Longs;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
 import io.netty.handler.codec.CorruptedFrameException;
@@ -29,19 +27,24 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 import java.util.List;
 
 public class AesEncryptionCodec extends ByteToMessageCodec<ByteBuf> {
 
-    private final SecretKey secretKey;
+    private static final int HASH_LENGTH = 8;
+
+    private final byte[] secretKeyBytes;
     private final Cipher inCipher;
     private final Cipher outCipher;
     private final MessageDigest sha256;
+    private final byte[] counterBytes = new byte[8];
+    private final byte[] hash;
+    private final ByteBuffer hashBuffer;
     private long sentPacketCounter;
     private long receivedPacketCounter;
 
@@ -50,51 +53,74 @@ public class AesEncryptionCodec extends ByteToMessageCodec<ByteBuf> {
         System.arraycopy(secretKey.getEncoded(), 0, iv, 0, 12);
         iv[15] = 2;
 
-        this.secretKey = secretKey;
+        this.secretKeyBytes = secretKey.getEncoded();
         this.inCipher = Cipher.getInstance("AES/CTR/NoPadding");
         this.inCipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv));
         this.outCipher = Cipher.getInstance("AES/CTR/NoPadding");
         this.outCipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv));
         this.sha256 = MessageDigest.getInstance("SHA-256");
+        this.hash = new byte[this.sha256.getDigestLength()];
+        this.hashBuffer = ByteBuffer.wrap(this.hash, 0, HASH_LENGTH);
     }
 
     @Override
     protected void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) throws Exception {
-        final byte[] hash = this.generateHash(in, this.sentPacketCounter++);
-
-        final ByteBuffer inBuffer = in.nioBuffer();
-        out.ensureWritable(in.readableBytes() + 8);
+        final int length = in.readableBytes();
+        this.generateHash(in, in.readerIndex(), length, this.sentPacketCounter++);
 
-        this.outCipher.update(inBuffer, out.nioBuffer(0, in.readableBytes()));
-        this.outCipher.update(ByteBuffer.wrap(hash), out.nioBuffer(in.readableBytes(), 8));
-        out.writerIndex(in.readableBytes() + 8);
+        out.ensureWritable(length + HASH_LENGTH);
+        final int outIndex = out.writerIndex();
+        this.outCipher.update(in.nioBuffer(), out.nioBuffer(outIndex, length));
+        this.outCipher.update(this.hashBuffer.clear().limit(HASH_LENGTH), out.nioBuffer(outIndex + length, HASH_LENGTH));
+        out.writerIndex(outIndex + length + HASH_LENGTH);
+        in.skipBytes(length);
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        final ByteBuffer inBuffer = in.nioBuffer();
-        final ByteBuffer outBuffer = inBuffer.duplicate();
+        final int length = in.readableBytes();
+        if (length < HASH_LENGTH) {
+            throw new CorruptedFrameException("Encrypted packet is too short");
+        }
 
-        this.inCipher.update(inBuffer, outBuffer);
-        final ByteBuf output = in.readRetainedSlice(in.readableBytes() - 8);
+        final ByteBuf output = ctx.alloc().directBuffer(length);
+        try {
+            this.inCipher.update(in.nioBuffer(), output.nioBuffer(0, length));
+            output.writerIndex(length);
+            in.skipBytes(length);
 
-        final byte[] receivedHash = new byte[8];
-        in.readBytes(receivedHash);
-        final byte[] expectedHash = this.generateHash(output, this.receivedPacketCounter++);
-        if (!MessageDigest.isEqual(receivedHash, expectedHash)) {
-            throw new CorruptedFrameException("Invalid encrypted packet");
+            final int payloadLength = length - HASH_LENGTH;
+            this.generateHash(output, 0, payloadLength, this.receivedPacketCounter++);
+            int difference = 0;
+            for (int i = 0; i < HASH_LENGTH; i++) { // Constant time comparison
+                difference |= this.hash[i] ^ output.getByte(payloadLength + i);
+            }
+            if (difference != 0) {
+                throw new CorruptedFrameException("Invalid encrypted packet");
+            }
+            output.writerIndex(payloadLength);
+        } catch (Throwable e) {
+            output.release();
+            throw e;
         }
 
         out.add(output);
     }
 
-    private byte[] generateHash(final ByteBuf buf, final long packetCounter) {
-        this.sha256.update(Longs.toByteArray(Long.reverseBytes(packetCounter)));
-        this.sha256.update(ByteBufUtil.getBytes(buf));
-        this.sha256.update(this.secretKey.getEncoded());
-        final byte[] hash = this.sha256.digest();
-        this.sha256.reset();
-        return Arrays.copyOf(hash, 8);
+    private void generateHash(final ByteBuf buf, final int index, final int length, final long packetCounter) throws DigestException {
+        for (int i = 0; i < this.counterBytes.length; i++) { // Little endian packet counter
+            this.counterBytes[i] = (byte) (packetCounter >>> (i * 8));
+        }
+        this.sha256.update(this.counterBytes);
+        if (buf.nioBufferCount() == 1) {
+            this.sha256.update(buf.nioBuffer(index, length));
+        } else {
+            for (ByteBuffer nioBuffer : buf.nioBuffers(index, length)) {
+                this.sha256.update(nioBuffer);
+            }
+        }
+        this.sha256.update(this.secretKeyBytes);
+        this.sha256.digest(this.hash, 0, this.hash.length); // Also resets the digest
     }
 
 }
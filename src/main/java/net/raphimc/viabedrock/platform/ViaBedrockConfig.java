@@ -18,6 +18,9 @@
 package net.raphimc.viabedrock.platform;
 
 import com.viaversion.viaversion.api.configuration.Config;
+import net.raphimc.viabedrock.api.io.compression.CompressionAlgorithm;
+import net.raphimc.viabedrock.api.io.compression.PooledZLibCompression;
+import net.raphimc.viabedrock.api.io.compression.ZLibCompression;
 import net.raphimc.viabedrock.protocol.provider.BlobCacheProvider;
 import net.raphimc.viabedrock.protocol.provider.ResourcePackProvider;
 import net.raphimc.viabedrock.protocol.provider.impl.*;
@@ -36,6 +39,16 @@ public interface ViaBedrockConfig extends Config {
      */
     BlobCacheMode getBlobCacheMode();
 
+    /**
+     * @return The maximum size in megabytes of the disk blob cache. The least recently used blobs are evicted when it is exceeded. Set to 0 to disable the limit.
+     */
+    int getBlobCacheMaxSize();
+
+    /**
+     * @return The maximum size in megabytes of the in memory tier of the tiered blob cache.
+     */
+    int getBlobCacheMemorySize();
+
     /**
      * @return If true, starts the resource pack HTTP server and enables resource pack translation
      */
@@ -94,6 +107,52 @@ public interface ViaBedrockConfig extends Config {
      */
     int getJavaSkinFetchTimeout();
 
+    /**
+     * @return The maximum size in bytes a single batch is allowed to decompress to. Batches exceeding this size cause a disconnect.
+     * Set to 0 to disable the limit.
+     */
+    int getMaxDecompressedBatchSize();
+
+    /**
+     * @return The zlib implementation to use for packet compression.
+     */
+    ZLibBackend getZLibBackend();
+
+    /**
+     * @return The amount of worker threads used to remap chunks off the netty event loop. Set to 0 to remap chunks on the event loop.
+     */
+    int getChunkRemapThreads();
+
+    /**
+     * @return The maximum amount of chunks sent to a single player per chunk tick.
+     */
+    int getChunksPerTick();
+
+    /**
+     * @return The maximum time in milliseconds spent sending chunks to a single player per chunk tick. Set to 0 to disable the time limit.
+     */
+    int getChunkSendTimeBudget();
+
+    /**
+     * @return The maximum amount of chunks sent per chunk tick by all players sharing a netty event loop. The budget is split fairly between them. Set to 0 to disable the limit.
+     */
+    int getEventLoopChunksPerTick();
+
+    /**
+     * @return The amount of worker threads used to compute chunk light when experimental features are enabled.
+     */
+    int getLightComputeThreads();
+
+    /**
+     * @return The maximum amount of light computations waiting for a worker thread. Chunks which don't fit into the queue are retried later.
+     */
+    int getLightComputeQueueSize();
+
+    /**
+     * @return The maximum size in megabytes of the global light cache.
+     */
+    int getLightCacheSize();
+
     enum BlobCacheMode {
 
         /**
@@ -107,7 +166,11 @@ public interface ViaBedrockConfig extends Config {
         /**
          * The blob cache will be enabled and blobs will be stored on disk.
          */
-        DISK(DiskBlobCacheProvider::new);
+        DISK(DiskBlobCacheProvider::new),
+        /**
+         * The blob cache will be enabled and blobs will be stored on disk. Recently used blobs are additionally kept in a size limited memory cache.
+         */
+        TIERED(TieredBlobCacheProvider::new);
 
         private final Supplier<BlobCacheProvider> providerSupplier;
 
@@ -168,4 +231,37 @@ public interface ViaBedrockConfig extends Config {
 
     }
 
+    enum ZLibBackend {
+
+        /**
+         * Every connection allocates its own deflater and inflater.
+         */
+        PER_CONNECTION(ZLibCompression::new),
+        /**
+         * All connections handled by the same event loop share one deflater and inflater.
+         */
+        POOLED(() -> PooledZLibCompression.INSTANCE);
+
+        private final Supplier<CompressionAlgorithm> compressionSupplier;
+
+        ZLibBackend(final Supplier<CompressionAlgorithm> compressionSupplier) {
+            this.compressionSupplier = compressionSupplier;
+        }
+
+        public static ZLibBackend byName(String name) {
+            for (ZLibBackend backend : values()) {
+                if (backend.name().equalsIgnoreCase(name)) {
+                    return backend;
+                }
+            }
+
+            return PER_CONNECTION;
+        }
+
+        public CompressionAlgorithm createCompression() {
+            return this.compressionSupplier.get();
+        }
+
+    }
+
 }
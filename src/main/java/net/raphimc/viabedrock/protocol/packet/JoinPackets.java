@@ -200,6 +200,9 @@ public class JoinPackets {
 
                     if (resourcePacksStorage == null || !resourcePacksStorage.hasFinishedLoading()) {
                         ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Pack negotiation not completed before joining game. Skipping resource pack loading");
+                        if (resourcePacksStorage != null) {
+                            resourcePacksStorage.releasePacks();
+                        }
                         resourcePacksStorage = new ResourcePacksStorage(wrapper.user());
                         resourcePacksStorage.setPackStack(new UUID[0]);
                         wrapper.user().put(resourcePacksStorage);
@@ -354,7 +357,7 @@ public class JoinPackets {
 
                     wrapper.user().put(new JoinGameStorage(levelName, difficulty, rainLevel, lightningLevel, currentTime, chunkTickRange));
                     wrapper.user().put(new GameRulesStorage(wrapper.user(), gameRules));
-                    wrapper.user().put(new BlockStateRewriter(blockProperties, hashedRuntimeBlockIds));
+                    wrapper.user().put(BlockStateRewriter.getShared(blockProperties, hashedRuntimeBlockIds));
                     wrapper.user().put(new ItemRewriter(wrapper.user(), new ItemEntry[0]));
                     wrapper.user().put(new ChunkTracker(wrapper.user(), dimension));
                     final EntityTracker entityTracker = new EntityTracker(wrapper.user());
@@ -61,6 +61,10 @@ public class ResourcePackPackets {
                 }
             }
 
+            final ResourcePacksStorage previousResourcePacksStorage = wrapper.user().get(ResourcePacksStorage.class);
+            if (previousResourcePacksStorage != null) {
+                previousResourcePacksStorage.releasePacks();
+            }
             final ResourcePacksStorage resourcePacksStorage = new ResourcePacksStorage(wrapper.user());
             wrapper.user().put(resourcePacksStorage);
 
@@ -211,6 +215,9 @@ public class ResourcePackPackets {
                 resourcePackIds[i] = resourcePacks[i].first();
             }
             resourcePacksStorage.setPackStack(resourcePackIds);
+            if (ViaBedrock.getResourcePackServer() != null) {
+                ViaBedrock.getResourcePackServer().startConversion(wrapper.user());
+            }
 
             ExperimentalFeatures.dispatchResourcePackStackSet(wrapper.user());
 
@@ -248,6 +255,7 @@ public class ResourcePackPackets {
                     wrapper.write(BedrockTypes.SHORT_LE_STRING_ARRAY, new String[0]); // pack ids
                 }
                 case DECLINED -> {
+                    resourcePacksStorage.releasePacks();
                     wrapper.user().put(new ResourcePacksStorage(wrapper.user()));
 
                     wrapper.write(Types.BYTE, (byte) ResourcePackResponse.DownloadingFinished.getValue()); // status
@@ -37,8 +37,9 @@ public class DiskBlobCacheProvider extends BlobCacheProvider {
         if (BLOB_DB != null) return;
 
         try {
+            final long maxSize = ViaBedrock.getConfig().getBlobCacheMaxSize() * 1024L * 1024L;
             try {
-                BLOB_DB = new BlobDB(ViaBedrock.getPlatform().getBlobCacheFolder());
+                BLOB_DB = new BlobDB(ViaBedrock.getPlatform().getBlobCacheFolder(), maxSize);
             } catch (Throwable e) {
                 ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Failed to open BlobDB, deleting it...", e);
                 try (Stream<Path> paths = Files.walk(ViaBedrock.getPlatform().getBlobCacheFolder().toPath())) {
@@ -46,8 +47,9 @@ public class DiskBlobCacheProvider extends BlobCacheProvider {
                         Files.delete(path);
                     }
                 }
-                BLOB_DB = new BlobDB(ViaBedrock.getPlatform().getBlobCacheFolder());
+                BLOB_DB = new BlobDB(ViaBedrock.getPlatform().getBlobCacheFolder(), maxSize);
             }
+            BLOB_DB.pin(0L); // Empty blob which is only added once on startup
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 try {
@@ -21,9 +21,13 @@ import net.raphimc.viabedrock.ViaBedrock;
 import net.raphimc.viabedrock.api.model.resourcepack.ResourcePack;
 import net.raphimc.viabedrock.protocol.provider.ResourcePackProvider;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 public class DiskResourcePackProvider extends ResourcePackProvider {
 
@@ -46,7 +50,17 @@ public class DiskResourcePackProvider extends ResourcePackProvider {
 
     @Override
     public void addPack(final ResourcePack pack) throws IOException {
-        Files.write(this.getPackFile(pack).toPath(), pack.content().toZip());
+        // Entries are inflated while writing and can fail, so write to a temporary file first to never leave a truncated pack behind
+        final File packFile = this.getPackFile(pack);
+        final Path tempFile = Files.createTempFile(packFile.getParentFile().toPath(), packFile.getName(), ".tmp");
+        try {
+            try (final OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+                pack.content().writeZip(outputStream);
+            }
+            Files.move(tempFile, packFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
     }
 
     private File getPackFile(final ResourcePack pack) {
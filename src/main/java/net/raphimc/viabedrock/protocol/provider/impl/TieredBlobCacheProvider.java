@@ -0,0 +1,57 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.protocol.provider.impl;
+
+import net.raphimc.viabedrock.ViaBedrock;
+import net.raphimc.viabedrock.api.io.BlobMemoryCache;
+
+/**
+ * Disk blob cache with a size bounded in memory tier in front of it. Frequently used blobs are served from memory without touching the disk.
+ */
+public class TieredBlobCacheProvider extends DiskBlobCacheProvider {
+
+    private final BlobMemoryCache memoryCache = new BlobMemoryCache(ViaBedrock.getConfig().getBlobCacheMemorySize() * 1024L * 1024L);
+
+    @Override
+    public void addBlob(final long hash, final byte[] blob) {
+        this.memoryCache.put(hash, blob);
+        super.addBlob(hash, blob);
+    }
+
+    @Override
+    public boolean hasBlob(final long hash) {
+        return this.memoryCache.contains(hash) || super.hasBlob(hash);
+    }
+
+    @Override
+    public byte[] getBlob(final long hash) {
+        byte[] blob = this.memoryCache.get(hash);
+        if (blob == null) {
+            blob = super.getBlob(hash);
+            if (blob != null) {
+                this.memoryCache.put(hash, blob);
+            }
+        }
+        return blob;
+    }
+
+    public BlobMemoryCache getMemoryCache() {
+        return this.memoryCache;
+    }
+
+}
@@ -41,6 +41,14 @@ import java.util.stream.Collectors;
 
 public class BlockStateRewriter implements StorableObject {
 
+    private static final int MAX_SHARED_INSTANCES = 4;
+    private static final Map<SharedInstanceKey, BlockStateRewriter> SHARED_INSTANCES = new LinkedHashMap<>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<SharedInstanceKey, BlockStateRewriter> eldest) {
+            return this.size() > MAX_SHARED_INSTANCES;
+        }
+    };
+
     private final Int2IntMap blockStateIdMappings = new Int2IntOpenHashMap(); // Bedrock -> Java
     private final Int2IntMap legacyBlockStateIdMappings = new Int2IntOpenHashMap(); // Bedrock -> Bedrock
     private final BiMap<BlockState, Integer> blockStateMappings = HashBiMap.create(); // Bedrock -> Bedrock
@@ -191,9 +199,35 @@ public class BlockStateRewriter implements StorableObject {
             this.legacyBlockStateIdMappings.put(legacyId << 4 | legacyData & 15, this.blockStateMappings.getOrDefault(entry.getValue(), -1).intValue());
         }
 
+        this.validBlockStates.replaceAll((identifier, blockStates) -> IntSortedSets.unmodifiable(blockStates));
         this.blockStateSanitizer = new BlockStateSanitizer(bedrockBlockStates);
     }
 
+    /**
+     * Gets a block state rewriter for the given block properties. The rewriter doesn't hold any connection specific state,
+     * so connections to servers with the same custom blocks share the same instance.
+     *
+     * @param blockProperties       The custom block properties sent by the server
+     * @param hashedRuntimeBlockIds Whether the server uses hashed runtime block ids
+     * @return The shared block state rewriter
+     */
+    public static BlockStateRewriter getShared(final BlockProperties[] blockProperties, final boolean hashedRuntimeBlockIds) {
+        final SharedInstanceKey key = new SharedInstanceKey(Arrays.stream(blockProperties).map(p -> new BlockProperties(p.name(), p.properties().copy())).toList(), hashedRuntimeBlockIds);
+        synchronized (SHARED_INSTANCES) {
+            final BlockStateRewriter blockStateRewriter = SHARED_INSTANCES.get(key);
+            if (blockStateRewriter != null) {
+                return blockStateRewriter;
+            }
+        }
+
+        // Built outside the lock. Connections racing for the same block properties might build it twice, but only the first instance is kept.
+        final BlockStateRewriter blockStateRewriter = new BlockStateRewriter(blockProperties, hashedRuntimeBlockIds);
+        synchronized (SHARED_INSTANCES) {
+            final BlockStateRewriter existingBlockStateRewriter = SHARED_INSTANCES.putIfAbsent(key, blockStateRewriter);
+            return existingBlockStateRewriter != null ? existingBlockStateRewriter : blockStateRewriter;
+        }
+    }
+
     public int bedrockId(final CompoundTag bedrockBlockStateTag) {
         final CompoundTag bedrockBlockStateTagClone = bedrockBlockStateTag.copy();
         try {
@@ -240,4 +274,7 @@ public class BlockStateRewriter implements StorableObject {
         return this.blockStateTags.get(bedrockBlockStateId);
     }
 
+    private record SharedInstanceKey(List<BlockProperties> blockProperties, boolean hashedRuntimeBlockIds) {
+    }
+
 }
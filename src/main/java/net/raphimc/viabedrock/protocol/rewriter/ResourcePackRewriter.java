@@ -42,11 +42,19 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.logging.Level;
 
 public class ResourcePackRewriter {
 
     private static final List<Rewriter> REWRITERS = new ArrayList<>();
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("ViaBedrock-Pack-Rewriter-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
 
     static {
         REWRITERS.add(new GlyphSheetResourceRewriter());
@@ -60,11 +68,24 @@ public class ResourcePackRewriter {
         REWRITERS.add(rewriter);
     }
 
+    /**
+     * Converts the resource packs of the given storage to a java resource pack.
+     * The rewriters run in parallel, each one into its own content. The contents are merged in registration order afterward,
+     * so that files written by multiple rewriters always end up with the same data.
+     */
     public static ResourcePack.Content bedrockToJava(final ResourcePacksStorage resourcePacksStorage) {
-        final ResourcePack.Content javaContent = new ResourcePack.Content();
-
+        final List<ForkJoinTask<ResourcePack.Content>> tasks = new ArrayList<>(REWRITERS.size());
         for (Rewriter rewriter : REWRITERS) {
-            rewriter.apply(resourcePacksStorage, javaContent);
+            tasks.add(POOL.submit(() -> {
+                final ResourcePack.Content content = new ResourcePack.Content(true);
+                rewriter.apply(resourcePacksStorage, content);
+                return content;
+            }));
+        }
+
+        final ResourcePack.Content javaContent = new ResourcePack.Content(true);
+        for (ForkJoinTask<ResourcePack.Content> task : tasks) {
+            javaContent.putAll(task.join());
         }
 
         javaContent.putJson("pack.mcmeta", createPackManifest());
@@ -196,6 +217,9 @@ public class ResourcePackRewriter {
         }
     }
 
+    /**
+     * Rewriters may be applied concurrently to each other and may parallelize their work internally, as the java content is thread safe.
+     */
     public interface Rewriter {
 
         void apply(final ResourcePacksStorage resourcePacksStorage, final ResourcePack.Content javaContent);
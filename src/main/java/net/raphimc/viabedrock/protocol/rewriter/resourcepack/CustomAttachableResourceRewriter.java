@@ -41,13 +41,13 @@ public class CustomAttachableResourceRewriter extends ItemModelResourceRewriter
 
     @Override
     protected void apply(final ResourcePacksStorage resourcePacksStorage, final ResourcePack.Content javaContent, final Set<String> modelsList) {
-        for (Map.Entry<String, AttachableDefinitions.AttachableDefinition> attachableEntry : resourcePacksStorage.getAttachables().attachables().entrySet()) {
+        this.convertInParallel(resourcePacksStorage.getAttachables().attachables().entrySet(), (attachableEntry, output) -> {
             for (String bedrockPath : attachableEntry.getValue().attachableData().getTextures().values()) {
                 for (ResourcePack pack : resourcePacksStorage.getPackStackTopToBottom()) {
                     final ResourcePack.Content bedrockContent = pack.content();
                     final ResourcePack.Content.LazyImage texture = bedrockContent.getShortnameImage(bedrockPath);
                     if (texture != null) {
-                        javaContent.putPngImage("assets/viabedrock/textures/" + this.getJavaTexturePath(bedrockPath) + ".png", texture);
+                        output.putPngImage("assets/viabedrock/textures/" + this.getJavaTexturePath(bedrockPath) + ".png", texture);
                         break;
                     }
                 }
@@ -85,11 +85,11 @@ public class CustomAttachableResourceRewriter extends ItemModelResourceRewriter
                 itemModel.add("display", display);
 
                 final String key = attachableEntry.getKey() + "_" + modelEntry.getKey();
-                resourcePacksStorage.getConverterData().put("ca_" + key, true);
-                javaContent.putJson("assets/viabedrock/models/" + this.getJavaModelName(key) + ".json", itemModel);
-                modelsList.add(key);
+                output.putConverterData("ca_" + key, true);
+                output.putJson("assets/viabedrock/models/" + this.getJavaModelName(key) + ".json", itemModel);
+                output.addModel(key);
             }
-        }
+        }, resourcePacksStorage, javaContent, modelsList);
     }
 
 }
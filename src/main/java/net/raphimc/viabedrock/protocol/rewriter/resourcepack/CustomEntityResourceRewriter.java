@@ -43,13 +43,13 @@ public class CustomEntityResourceRewriter extends ItemModelResourceRewriter {
 
     @Override
     protected void apply(final ResourcePacksStorage resourcePacksStorage, final ResourcePack.Content javaContent, final Set<String> modelsList) {
-        for (Map.Entry<String, EntityDefinitions.EntityDefinition> entityEntry : resourcePacksStorage.getEntities().entities().entrySet()) {
+        this.convertInParallel(resourcePacksStorage.getEntities().entities().entrySet(), (entityEntry, output) -> {
             for (String bedrockPath : entityEntry.getValue().entityData().getTextures().values()) {
                 for (ResourcePack pack : resourcePacksStorage.getPackStackTopToBottom()) {
                     final ResourcePack.Content bedrockContent = pack.content();
                     final ResourcePack.Content.LazyImage texture = bedrockContent.getShortnameImage(bedrockPath);
                     if (texture != null) {
-                        javaContent.putPngImage("assets/viabedrock/textures/" + this.getJavaTexturePath(bedrockPath) + ".png", texture);
+                        output.putPngImage("assets/viabedrock/textures/" + this.getJavaTexturePath(bedrockPath) + ".png", texture);
                         break;
                     }
                 }
@@ -84,10 +84,10 @@ public class CustomEntityResourceRewriter extends ItemModelResourceRewriter {
 
                             final String boneKey = baseKey + "_" + boneName;
                             final float safeScale = Float.isFinite(itemModel.getScale()) ? itemModel.getScale() : 1.0f;
-                            resourcePacksStorage.getConverterData().put("ce_" + boneKey + "_scale", safeScale);
-                            javaContent.putString("assets/viabedrock/models/" + this.getJavaModelName(boneKey) + ".json",
+                            output.putConverterData("ce_" + boneKey + "_scale", safeScale);
+                            output.putString("assets/viabedrock/models/" + this.getJavaModelName(boneKey) + ".json",
                                     itemModel.compile().toString());
-                            modelsList.add(boneKey);
+                            output.addModel(boneKey);
                             boneNames.add(boneName);
                         } catch (Throwable e) {
                             ViaBedrock.getPlatform().getLogger().log(Level.WARNING,
@@ -96,10 +96,10 @@ public class CustomEntityResourceRewriter extends ItemModelResourceRewriter {
                     }
 
                     // Store ordered bone name list for this geometry+texture combination
-                    resourcePacksStorage.getConverterData().put("ce_" + baseKey + "_bones", boneNames);
+                    output.putConverterData("ce_" + baseKey + "_bones", boneNames);
                 }
             }
-        }
+        }, resourcePacksStorage, javaContent, modelsList);
     }
 
 }
@@ -23,8 +23,6 @@ import net.raphimc.viabedrock.api.model.resourcepack.ResourcePack;
 import net.raphimc.viabedrock.api.model.resourcepack.TextureDefinitions;
 import net.raphimc.viabedrock.protocol.storage.ResourcePacksStorage;
 
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 public class CustomItemTextureResourceRewriter extends ItemModelResourceRewriter {
@@ -37,7 +35,7 @@ public class CustomItemTextureResourceRewriter extends ItemModelResourceRewriter
 
     @Override
     protected void apply(final ResourcePacksStorage resourcePacksStorage, final ResourcePack.Content javaContent, final Set<String> modelsList) {
-        for (Map.Entry<String, List<TextureDefinitions.ItemTextureDefinition>> entry : resourcePacksStorage.getTextures().itemTextures().entrySet()) {
+        this.convertInParallel(resourcePacksStorage.getTextures().itemTextures().entrySet(), (entry, output) -> {
             for (int i = 0; i < entry.getValue().size(); i++) {
                 final TextureDefinitions.ItemTextureDefinition itemTextureDefinition = entry.getValue().get(i);
                 for (ResourcePack pack : resourcePacksStorage.getPackStackTopToBottom()) {
@@ -45,19 +43,19 @@ public class CustomItemTextureResourceRewriter extends ItemModelResourceRewriter
                     final ResourcePack.Content.LazyImage texture = bedrockContent.getShortnameImage(itemTextureDefinition.texturePath());
                     if (texture == null) continue;
 
-                    javaContent.putPngImage("assets/viabedrock/textures/" + this.getJavaTexturePath(itemTextureDefinition.texturePath()) + ".png", texture);
+                    output.putPngImage("assets/viabedrock/textures/" + this.getJavaTexturePath(itemTextureDefinition.texturePath()) + ".png", texture);
 
                     final JsonObject itemModel = new JsonObject();
                     itemModel.addProperty("parent", "minecraft:item/generated");
                     final JsonObject layer0 = new JsonObject();
                     layer0.addProperty("layer0", "viabedrock:" + this.getJavaTexturePath(itemTextureDefinition.texturePath()));
                     itemModel.add("textures", layer0);
-                    javaContent.putJson("assets/viabedrock/models/" + this.getJavaModelName(entry.getKey() + "_" + i) + ".json", itemModel);
-                    modelsList.add(entry.getKey() + "_" + i);
+                    output.putJson("assets/viabedrock/models/" + this.getJavaModelName(entry.getKey() + "_" + i) + ".json", itemModel);
+                    output.addModel(entry.getKey() + "_" + i);
                     break;
                 }
             }
-        }
+        }, resourcePacksStorage, javaContent, modelsList);
     }
 
 }
@@ -20,13 +20,15 @@ package net.raphimc.viabedrock.protocol.rewriter.resourcepack;
 import com.viaversion.viaversion.api.minecraft.item.data.CustomModelData1_21_4;
 import com.viaversion.viaversion.libs.gson.JsonArray;
 import com.viaversion.viaversion.libs.gson.JsonObject;
+import com.viaversion.viaversion.util.GsonUtil;
 import net.raphimc.viabedrock.api.model.resourcepack.ResourcePack;
 import net.raphimc.viabedrock.api.util.StringUtil;
 import net.raphimc.viabedrock.protocol.rewriter.ResourcePackRewriter;
 import net.raphimc.viabedrock.protocol.storage.ResourcePacksStorage;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
 
 public abstract class ItemModelResourceRewriter implements ResourcePackRewriter.Rewriter {
 
@@ -47,8 +49,10 @@ public abstract class ItemModelResourceRewriter implements ResourcePackRewriter.
         final Set<String> modelsList = new HashSet<>();
         this.apply(resourcePacksStorage, javaContent, modelsList);
         if (!modelsList.isEmpty()) {
+            final List<String> sortedModels = new ArrayList<>(modelsList);
+            Collections.sort(sortedModels);
             final JsonArray cases = new JsonArray();
-            for (String modelKey : modelsList) {
+            for (String modelKey : sortedModels) {
                 final JsonObject caseObj = new JsonObject();
                 caseObj.addProperty("when", modelKey);
 
@@ -70,8 +74,34 @@ public abstract class ItemModelResourceRewriter implements ResourcePackRewriter.
         }
     }
 
+    /**
+     * @param modelsList The set to add the keys of the generated models to
+     */
     protected abstract void apply(final ResourcePacksStorage resourcePacksStorage, final ResourcePack.Content javaContent, final Set<String> modelsList);
 
+    /**
+     * Converts the definitions in parallel and applies the outputs in encounter order afterwards.<br>
+     * Different definitions can map to the same java path, so only the encoding runs in parallel and the writes stay deterministic.
+     *
+     * @param definitions          The definitions to convert
+     * @param converter            Converts a single definition into its output. Must not modify any shared state
+     * @param resourcePacksStorage The resource packs storage to write the converter data to
+     * @param javaContent          The java content to write the files to
+     * @param modelsList           The set to add the keys of the generated models to
+     */
+    protected <T> void convertInParallel(final Collection<T> definitions, final BiConsumer<T, Output> converter, final ResourcePacksStorage resourcePacksStorage, final ResourcePack.Content javaContent, final Set<String> modelsList) {
+        final List<Output> outputs = definitions.parallelStream().map(definition -> {
+            final Output output = new Output();
+            converter.accept(definition, output);
+            return output;
+        }).toList();
+        for (Output output : outputs) {
+            output.files.forEach(javaContent::put);
+            resourcePacksStorage.getConverterData().putAll(output.converterData);
+            modelsList.addAll(output.models);
+        }
+    }
+
     protected String getJavaModelName(final String bedrockName) {
         return this.subFolder + '/' + StringUtil.makeIdentifierValueSafe(bedrockName);
     }
@@ -80,4 +110,35 @@ public abstract class ItemModelResourceRewriter implements ResourcePackRewriter.
         return "item/" + this.subFolder + '/' + StringUtil.makeIdentifierValueSafe(bedrockPath.replace("textures/", ""));
     }
 
+    /**
+     * The encoded files, converter data and model keys of a single converted definition.
+     */
+    protected static class Output {
+
+        private final Map<String, byte[]> files = new LinkedHashMap<>();
+        private final Map<String, Object> converterData = new LinkedHashMap<>();
+        private final List<String> models = new ArrayList<>();
+
+        public void putPngImage(final String path, final ResourcePack.Content.LazyImage image) {
+            this.files.put(path, image.getPngBytes());
+        }
+
+        public void putJson(final String path, final JsonObject json) {
+            this.putString(path, GsonUtil.getGson().toJson(json));
+        }
+
+        public void putString(final String path, final String string) {
+            this.files.put(path, string.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public void putConverterData(final String key, final Object value) {
+            this.converterData.put(key, value);
+        }
+
+        public void addModel(final String key) {
+            this.models.add(key);
+        }
+
+    }
+
 }
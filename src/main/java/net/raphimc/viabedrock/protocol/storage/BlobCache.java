@@ -21,7 +21,11 @@ import com.viaversion.viaversion.api.Via;
 import com.viaversion.viaversion.api.connection.StoredObject;
 import com.viaversion.viaversion.api.connection.UserConnection;
 import com.viaversion.viaversion.api.protocol.packet.PacketWrapper;
+import com.viaversion.viaversion.libs.fastutil.longs.*;
+import com.viaversion.viaversion.libs.fastutil.objects.ObjectIterator;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import net.jpountz.xxhash.XXHash64;
 import net.jpountz.xxhash.XXHashFactory;
 import net.raphimc.viabedrock.protocol.BedrockProtocol;
@@ -29,134 +33,226 @@ import net.raphimc.viabedrock.protocol.ServerboundBedrockPackets;
 import net.raphimc.viabedrock.protocol.provider.BlobCacheProvider;
 import net.raphimc.viabedrock.protocol.types.BedrockTypes;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 public class BlobCache extends StoredObject {
 
     private static final XXHash64 XXHASH64 = XXHashFactory.fastestInstance().hash64();
+    private static final int MAX_HASHES_PER_STATUS = 1024;
+    private static final long SHARED_REQUEST_TIMEOUT = 5000;
 
-    private final Map<Long, CompletableFuture<byte[]>> pending = new HashMap<>();
-    private final List<Long> missing = new ArrayList<>();
-    private final List<Long> acked = new ArrayList<>();
+    private final Long2ObjectMap<List<BlobWaiter>> pending = new Long2ObjectOpenHashMap<>();
+    private final LongArrayList missing = new LongArrayList();
+    private final LongArrayList acked = new LongArrayList();
+    private final LongSet queuedAcks = new LongOpenHashSet();
+    private final Long2LongMap sharedRequests = new Long2LongOpenHashMap(); // Blobs requested by other connections to the same server and when we started waiting for them
 
     public BlobCache(final UserConnection user) {
         super(user);
+        if (user.getChannel() != null) {
+            user.getChannel().closeFuture().addListener(future -> BlobRegistry.getInstance().release(user));
+        }
     }
 
     public void tick() {
+        if (!this.sharedRequests.isEmpty()) {
+            final long now = System.currentTimeMillis();
+            for (ObjectIterator<Long2LongMap.Entry> it = this.sharedRequests.long2LongEntrySet().iterator(); it.hasNext(); ) {
+                final Long2LongMap.Entry entry = it.next();
+                if (now - entry.getLongValue() >= SHARED_REQUEST_TIMEOUT) { // The other connection didn't receive the blob in time, request it ourselves
+                    final String serverAddress = this.serverAddress();
+                    if (serverAddress != null) {
+                        BlobRegistry.getInstance().takeOver(serverAddress, entry.getLongKey(), this.user());
+                    }
+                    this.missing.add(entry.getLongKey());
+                    it.remove();
+                }
+            }
+        }
         if (this.missing.isEmpty() && this.acked.isEmpty()) {
             return;
         }
 
-        final List<Long> missingSubSet = this.missing.subList(0, Math.min(1024, this.missing.size()));
-        final List<Long> ackedSubSet = this.acked.subList(0, Math.min(1024, this.acked.size()));
+        final int missingCount = Math.min(MAX_HASHES_PER_STATUS, this.missing.size());
+        final int ackedCount = Math.min(MAX_HASHES_PER_STATUS, this.acked.size());
 
         final PacketWrapper clientCacheBlobStatus = PacketWrapper.create(ServerboundBedrockPackets.CLIENT_CACHE_BLOB_STATUS, this.user());
-        clientCacheBlobStatus.write(BedrockTypes.UNSIGNED_VAR_INT, missingSubSet.size()); // missing blob count
-        clientCacheBlobStatus.write(BedrockTypes.UNSIGNED_VAR_INT, ackedSubSet.size()); // acked blob count
-        for (long hash : missingSubSet) {
-            clientCacheBlobStatus.write(BedrockTypes.LONG_LE, hash); // missing blob hash
+        clientCacheBlobStatus.write(BedrockTypes.UNSIGNED_VAR_INT, missingCount); // missing blob count
+        clientCacheBlobStatus.write(BedrockTypes.UNSIGNED_VAR_INT, ackedCount); // acked blob count
+        for (int i = 0; i < missingCount; i++) {
+            clientCacheBlobStatus.write(BedrockTypes.LONG_LE, this.missing.getLong(i)); // missing blob hash
         }
-        for (long hash : ackedSubSet) {
+        for (int i = 0; i < ackedCount; i++) {
+            final long hash = this.acked.getLong(i);
             clientCacheBlobStatus.write(BedrockTypes.LONG_LE, hash); // acked blob hash
+            this.queuedAcks.remove(hash);
         }
         clientCacheBlobStatus.sendToServer(BedrockProtocol.class);
 
-        this.missing.removeAll(missingSubSet);
-        this.acked.removeAll(ackedSubSet);
+        this.missing.removeElements(0, missingCount);
+        this.acked.removeElements(0, ackedCount);
     }
 
     public void addBlob(final long hash, final byte[] blob) {
         // Blob validation: https://github.com/Mojang/bedrock-protocol-docs/blob/e8b16c2ada3de6946c2d09f76a477d37aa1c074b/additional_docs/ClientCacheMissResponsePacketValidation.md
+        final BlobCacheProvider blobCacheProvider = Via.getManager().getProviders().get(BlobCacheProvider.class);
+        final byte[] cachedBlob = blobCacheProvider.hasBlob(hash) ? blobCacheProvider.getBlob(hash) : null;
         if (!this.pending.containsKey(hash)) {
+            if (cachedBlob != null) { // Requested after a shared request timed out, but the shared request completed first
+                this.completeShared(hash, cachedBlob);
+                return;
+            }
             throw new IllegalStateException("Received unexpected blob: " + hash + " (" + ByteBufUtil.hexDump(blob) + ")");
         }
+        if (cachedBlob != null) { // Already received and validated by another connection
+            this.completeShared(hash, cachedBlob);
+            this.resolve(hash, cachedBlob);
+            return;
+        }
         final long expectedHash = XXHASH64.hash(blob, 0, blob.length, 0);
         if (hash != expectedHash) {
             throw new IllegalStateException("Received blob with unexpected hash: " + hash + " != " + expectedHash + " (" + ByteBufUtil.hexDump(blob) + ")");
         }
 
-        Via.getManager().getProviders().get(BlobCacheProvider.class).addBlob(hash, blob);
-        this.acked.add(hash);
-        this.pending.remove(hash).complete(blob);
+        blobCacheProvider.addBlob(hash, blob);
+        this.completeShared(hash, blob);
+        this.resolve(hash, blob);
     }
 
     public boolean hasBlob(final long... hashes) {
+        final BlobCacheProvider blobCacheProvider = Via.getManager().getProviders().get(BlobCacheProvider.class);
         for (long hash : hashes) {
-            if (!Via.getManager().getProviders().get(BlobCacheProvider.class).hasBlob(hash)) {
+            if (!blobCacheProvider.hasBlob(hash)) {
                 return false;
             }
         }
         return true;
     }
 
-    public CompletableFuture<byte[]> getBlob(final long... hashes) {
-        return this.getBlob(true, hashes);
-    }
-
-    public CompletableFuture<byte[]> getBlob(final Long[] hashes) {
+    public CompletableFuture<ByteBuf> getBlob(final Long[] hashes) {
         final long[] longs = new long[hashes.length];
         for (int i = 0; i < hashes.length; i++) {
             longs[i] = hashes[i];
         }
 
-        return this.getBlob(true, longs);
+        return this.getBlob(longs);
     }
 
-    public CompletableFuture<byte[]> getBlob(final boolean acknowledge, final long... hashes) {
-        if (acknowledge) {
-            for (long hash : hashes) {
-                if (this.hasBlob(hash)) {
-                    this.acked.add(hash);
-                } else if (!this.pending.containsKey(hash)) {
-                    this.missing.add(hash);
+    /**
+     * Gets the concatenated data of the given blobs. Blobs which aren't cached yet are requested from the server.
+     *
+     * @param hashes The blob hashes
+     * @return A future which is completed with a buffer wrapping all blobs in order, once all blobs are available
+     */
+    public CompletableFuture<ByteBuf> getBlob(final long... hashes) {
+        final BlobCacheProvider blobCacheProvider = Via.getManager().getProviders().get(BlobCacheProvider.class);
+        final BlobWaiter waiter = new BlobWaiter(hashes);
+        for (int i = 0; i < hashes.length; i++) {
+            final long hash = hashes[i];
+            final byte[] blob = blobCacheProvider.hasBlob(hash) ? blobCacheProvider.getBlob(hash) : null;
+            if (blob != null) {
+                waiter.blobs[i] = blob;
+                this.acknowledge(hash);
+            } else {
+                waiter.remaining++;
+                List<BlobWaiter> waiters = this.pending.get(hash);
+                if (waiters == null) {
+                    this.pending.put(hash, waiters = new ArrayList<>(1));
+                    this.requestBlob(hash);
+                }
+                if (waiters.isEmpty() || waiters.get(waiters.size() - 1) != waiter) { // The same hash can occur multiple times in a row
+                    waiters.add(waiter);
                 }
             }
         }
 
-        if (this.hasBlob(hashes)) {
-            final ByteArrayOutputStream output = new ByteArrayOutputStream();
-            try {
-                for (long hash : hashes) {
-                    output.write(Via.getManager().getProviders().get(BlobCacheProvider.class).getBlob(hash));
+        if (waiter.remaining == 0) {
+            waiter.future.complete(waiter.assemble());
+        }
+        return waiter.future;
+    }
+
+    private void requestBlob(final long hash) {
+        final String serverAddress = this.serverAddress();
+        if (serverAddress == null || BlobRegistry.getInstance().request(serverAddress, hash, this.user())) {
+            this.missing.add(hash);
+        } else {
+            this.sharedRequests.put(hash, System.currentTimeMillis());
+        }
+    }
+
+    void addSharedBlob(final long hash, final byte[] blob) {
+        this.sharedRequests.remove(hash);
+        if (this.pending.containsKey(hash)) {
+            this.resolve(hash, blob);
+        }
+    }
+
+    void requestHandedOverBlob(final long hash) {
+        if (this.sharedRequests.containsKey(hash)) { // The connection which requested the blob disconnected
+            this.sharedRequests.remove(hash);
+            this.missing.add(hash);
+        }
+    }
+
+    private void completeShared(final long hash, final byte[] blob) {
+        final String serverAddress = this.serverAddress();
+        if (serverAddress != null) {
+            BlobRegistry.getInstance().complete(serverAddress, hash, blob);
+        }
+    }
+
+    private void resolve(final long hash, final byte[] blob) {
+        this.acknowledge(hash);
+        for (BlobWaiter waiter : this.pending.remove(hash)) {
+            waiter.provide(hash, blob);
+        }
+    }
+
+    private String serverAddress() {
+        final HandshakeStorage handshakeStorage = this.user().get(HandshakeStorage.class);
+        return handshakeStorage != null ? handshakeStorage.hostname() + ":" + handshakeStorage.port() : null;
+    }
+
+    private void acknowledge(final long hash) {
+        if (this.queuedAcks.add(hash)) {
+            this.acked.add(hash);
+        }
+    }
+
+    /**
+     * Waits for all blobs of a single request and assembles them without copying once they are available.
+     */
+    private static class BlobWaiter {
+
+        private final long[] hashes;
+        private final byte[][] blobs;
+        private final CompletableFuture<ByteBuf> future = new CompletableFuture<>();
+        private int remaining;
+
+        private BlobWaiter(final long[] hashes) {
+            this.hashes = hashes;
+            this.blobs = new byte[hashes.length][];
+        }
+
+        private void provide(final long hash, final byte[] blob) {
+            for (int i = 0; i < this.hashes.length; i++) {
+                if (this.hashes[i] == hash && this.blobs[i] == null) {
+                    this.blobs[i] = blob;
+                    this.remaining--;
                 }
-            } catch (final IOException ignored) {
             }
-            return CompletableFuture.completedFuture(output.toByteArray());
+            if (this.remaining == 0) {
+                this.future.complete(this.assemble());
+            }
         }
 
-        final CompletableFuture<byte[]> rootFuture = new CompletableFuture<>();
-        for (long hash : hashes) {
-            if (this.hasBlob(hash)) continue;
-
-            CompletableFuture<byte[]> subFuture = new CompletableFuture<>();
-            final CompletableFuture<byte[]> existing = this.pending.get(hash);
-            if (existing != null) {
-                subFuture.whenComplete((blob, throwable) -> {
-                    if (throwable != null) {
-                        existing.completeExceptionally(throwable);
-                    } else {
-                        existing.complete(blob);
-                    }
-                });
-            }
-            subFuture.whenComplete((blob, throwable) -> {
-                if (throwable != null) {
-                    rootFuture.completeExceptionally(throwable);
-                } else if (this.hasBlob(hashes)) {
-                    rootFuture.complete(this.getBlob(false, hashes).getNow(null));
-                }
-            });
-            this.pending.put(hash, subFuture);
+        private ByteBuf assemble() {
+            return this.blobs.length == 1 ? Unpooled.wrappedBuffer(this.blobs[0]) : Unpooled.wrappedBuffer(this.blobs.length, this.blobs);
         }
 
-        return rootFuture;
     }
 
 }
@@ -0,0 +1,171 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.protocol.storage;
+
+import com.viaversion.viaversion.api.connection.UserConnection;
+import io.netty.channel.Channel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide registry of blobs which are currently requested from a server. If multiple connections to the same server miss the same blob, only the first one requests it
+ * and the others receive the validated blob once it arrives.
+ */
+public class BlobRegistry {
+
+    private static final BlobRegistry INSTANCE = new BlobRegistry();
+
+    private final Map<String, Map<Long, InFlightBlob>> inFlightBlobs = new ConcurrentHashMap<>(); // Per server maps are only accessed inside compute calls of the outer map
+
+    public static BlobRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers a connection which misses the given blob.
+     *
+     * @param server    The server address the connection is connected to
+     * @param hash      The blob hash
+     * @param requester The connection which misses the blob. Receives the blob through its {@link BlobCache} once it was received by another connection
+     * @return true if the requester has to request the blob from the server itself, false if it is already in flight on another connection
+     */
+    public boolean request(final String server, final long hash, final UserConnection requester) {
+        final boolean[] owner = new boolean[1];
+        this.inFlightBlobs.compute(server, (k, blobs) -> {
+            if (blobs == null) {
+                blobs = new HashMap<>();
+            }
+            final InFlightBlob inFlightBlob = blobs.get(hash);
+            if (inFlightBlob == null) {
+                owner[0] = true;
+                blobs.put(hash, new InFlightBlob(requester));
+            } else if (inFlightBlob.owner == requester) {
+                owner[0] = true;
+            } else if (!inFlightBlob.owner.getChannel().isActive()) { // Take over requests of disconnected connections
+                owner[0] = true;
+                inFlightBlob.handOver(requester);
+            } else if (!inFlightBlob.waiters.contains(requester)) {
+                inFlightBlob.waiters.add(requester);
+            }
+            return blobs;
+        });
+        return owner[0];
+    }
+
+    /**
+     * Makes the given connection request the blob itself, because the connection currently requesting it didn't receive it in time.
+     *
+     * @param server    The server address the connection is connected to
+     * @param hash      The blob hash
+     * @param requester The connection which waited for the blob
+     */
+    public void takeOver(final String server, final long hash, final UserConnection requester) {
+        this.inFlightBlobs.computeIfPresent(server, (k, blobs) -> {
+            final InFlightBlob inFlightBlob = blobs.get(hash);
+            if (inFlightBlob != null) {
+                inFlightBlob.handOver(requester);
+            } else {
+                blobs.put(hash, new InFlightBlob(requester));
+            }
+            return blobs;
+        });
+    }
+
+    /**
+     * Distributes a received and validated blob to all connections waiting for it.
+     *
+     * @param server The server address the blob was received from
+     * @param hash   The blob hash
+     * @param blob   The blob data. Must not be modified afterwards
+     */
+    public void complete(final String server, final long hash, final byte[] blob) {
+        final InFlightBlob[] inFlightBlob = new InFlightBlob[1];
+        this.inFlightBlobs.computeIfPresent(server, (k, blobs) -> {
+            inFlightBlob[0] = blobs.remove(hash);
+            return blobs.isEmpty() ? null : blobs;
+        });
+        if (inFlightBlob[0] != null) {
+            for (UserConnection waiter : inFlightBlob[0].waiters) {
+                final Channel channel = waiter.getChannel();
+                if (channel == null || !channel.isActive()) continue;
+
+                channel.eventLoop().execute(() -> {
+                    final BlobCache blobCache = waiter.get(BlobCache.class);
+                    if (blobCache != null) {
+                        blobCache.addSharedBlob(hash, blob);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Removes a closed connection from all in flight blobs. Blobs it requested are handed over to the first waiting connection, which then has to request them on its next tick.
+     *
+     * @param user The closed connection
+     */
+    public void release(final UserConnection user) {
+        for (String server : this.inFlightBlobs.keySet()) {
+            this.inFlightBlobs.computeIfPresent(server, (k, blobs) -> {
+                for (Iterator<Map.Entry<Long, InFlightBlob>> it = blobs.entrySet().iterator(); it.hasNext(); ) {
+                    final Map.Entry<Long, InFlightBlob> entry = it.next();
+                    final InFlightBlob inFlightBlob = entry.getValue();
+                    inFlightBlob.waiters.remove(user);
+                    if (inFlightBlob.owner != user) continue;
+
+                    if (inFlightBlob.waiters.isEmpty()) {
+                        it.remove();
+                    } else {
+                        final UserConnection newOwner = inFlightBlob.waiters.get(0);
+                        inFlightBlob.handOver(newOwner);
+                        final long hash = entry.getKey();
+                        newOwner.getChannel().eventLoop().execute(() -> {
+                            final BlobCache blobCache = newOwner.get(BlobCache.class);
+                            if (blobCache != null) {
+                                blobCache.requestHandedOverBlob(hash);
+                            }
+                        });
+                    }
+                }
+                return blobs.isEmpty() ? null : blobs;
+            });
+        }
+    }
+
+    private static class InFlightBlob {
+
+        private UserConnection owner;
+        private final List<UserConnection> waiters = new ArrayList<>(1);
+
+        private InFlightBlob(final UserConnection owner) {
+            this.owner = owner;
+        }
+
+        private void handOver(final UserConnection newOwner) {
+            this.owner = newOwner;
+            this.waiters.remove(newOwner);
+        }
+
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of ViaBedrock - https://github.com/RaphiMC/ViaBedrock
+ * Copyright (C) 2023-2026 RK_01/RaphiMC and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.raphimc.viabedrock.protocol.storage;
+
+import com.viaversion.viaversion.libs.fastutil.longs.LongIterator;
+import com.viaversion.viaversion.libs.fastutil.longs.LongLinkedOpenHashSet;
+import io.netty.util.concurrent.EventExecutor;
+import net.raphimc.viabedrock.ViaBedrock;
+import net.raphimc.viabedrock.platform.ViaBedrockConfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which dirty chunks of a connection are sent in a tick.<br>
+ * Chunks closest to the chunk cache center are sent first. The amount of chunks is limited by a per connection chunk and time budget
+ * and by a budget shared fairly between all connections of the same event loop.
+ */
+public class ChunkSendScheduler {
+
+    private static final Map<EventExecutor, EventLoopBudget> EVENT_LOOP_BUDGETS = new ConcurrentHashMap<>();
+    private static volatile long currentTick;
+
+    private final LongLinkedOpenHashSet queuedChunks = new LongLinkedOpenHashSet();
+    private boolean starved;
+
+    private long sentChunks;
+    private long deferredTicks;
+    private long timeBudgetExceededTicks;
+    private long sendNanos;
+
+    /**
+     * Starts a new scheduling window for the shared event loop budgets. Called once per chunk tracker tick.
+     */
+    public static void nextTick() {
+        currentTick++;
+    }
+
+    public void add(final long chunkKey) {
+        this.queuedChunks.add(chunkKey);
+    }
+
+    public void remove(final long chunkKey) {
+        this.queuedChunks.remove(chunkKey);
+    }
+
+    public boolean contains(final long chunkKey) {
+        return this.queuedChunks.contains(chunkKey);
+    }
+
+    public boolean isEmpty() {
+        return this.queuedChunks.isEmpty();
+    }
+
+    /**
+     * Sends the closest queued chunks within the budgets of this tick.
+     *
+     * @param executor The event loop of the connection
+     * @param centerX  The chunk cache center x coordinate
+     * @param centerZ  The chunk cache center z coordinate
+     * @param sender   The function which sends a chunk
+     */
+    public void sendChunks(final EventExecutor executor, final int centerX, final int centerZ, final ChunkSender sender) {
+        if (this.queuedChunks.isEmpty()) {
+            return;
+        }
+
+        final ViaBedrockConfig config = ViaBedrock.getConfig();
+        int allowance = config.getChunksPerTick();
+        EventLoopBudget eventLoopBudget = null;
+        if (config.getEventLoopChunksPerTick() > 0) {
+            eventLoopBudget = EVENT_LOOP_BUDGETS.computeIfAbsent(executor, k -> new EventLoopBudget());
+            allowance = Math.min(allowance, eventLoopBudget.acquire(config.getEventLoopChunksPerTick(), this.starved));
+        }
+        this.starved = allowance <= 0;
+
+        final long timeBudget = config.getChunkSendTimeBudget() * 1_000_000L;
+        final long start = System.nanoTime();
+        int sent = 0;
+        while (!this.queuedChunks.isEmpty() && sent < allowance) {
+            if (sent > 0 && timeBudget > 0 && System.nanoTime() - start >= timeBudget) {
+                this.timeBudgetExceededTicks++;
+                break;
+            }
+
+            final long chunkKey = this.pollClosest(centerX, centerZ);
+            sender.sendChunk(ChunkTracker.chunkKeyX(chunkKey), ChunkTracker.chunkKeyZ(chunkKey));
+            sent++;
+        }
+        if (eventLoopBudget != null) {
+            eventLoopBudget.release(allowance - sent);
+        }
+
+        this.sentChunks += sent;
+        this.sendNanos += System.nanoTime() - start;
+        if (!this.queuedChunks.isEmpty()) {
+            this.deferredTicks++;
+        }
+    }
+
+    /**
+     * @return The amount of chunks waiting to be sent
+     */
+    public int getQueuedChunks() {
+        return this.queuedChunks.size();
+    }
+
+    /**
+     * @return The total amount of chunks sent
+     */
+    public long getSentChunks() {
+        return this.sentChunks;
+    }
+
+    /**
+     * @return The amount of ticks which ended with chunks left in the queue
+     */
+    public long getDeferredTicks() {
+        return this.deferredTicks;
+    }
+
+    /**
+     * @return The amount of ticks which were cut short by the time budget
+     */
+    public long getTimeBudgetExceededTicks() {
+        return this.timeBudgetExceededTicks;
+    }
+
+    /**
+     * @return The total time spent sending chunks in nanoseconds
+     */
+    public long getSendNanos() {
+        return this.sendNanos;
+    }
+
+    private long pollClosest(final int centerX, final int centerZ) {
+        long closestChunkKey = 0;
+        long closestDistance = Long.MAX_VALUE;
+        final LongIterator it = this.queuedChunks.iterator();
+        while (it.hasNext()) {
+            final long chunkKey = it.nextLong();
+            final long dx = ChunkTracker.chunkKeyX(chunkKey) - centerX;
+            final long dz = ChunkTracker.chunkKeyZ(chunkKey) - centerZ;
+            final long distance = dx * dx + dz * dz;
+            if (distance < closestDistance) {
+                closestChunkKey = chunkKey;
+                closestDistance = distance;
+                if (distance == 0) break;
+            }
+        }
+        this.queuedChunks.remove(closestChunkKey);
+        return closestChunkKey;
+    }
+
+    @FunctionalInterface
+    public interface ChunkSender {
+
+        void sendChunk(final int chunkX, final int chunkZ);
+
+    }
+
+    /**
+     * Chunk budget of one event loop. Only accessed from its event loop thread.
+     */
+    private static final class EventLoopBudget {
+
+        private long tick = -1;
+        private int remaining;
+        private int connections;
+        private int previousConnections = 1;
+
+        private int acquire(final int budget, final boolean starved) {
+            if (this.tick != currentTick) {
+                this.tick = currentTick;
+                this.remaining = budget;
+                this.previousConnections = Math.max(this.connections, 1);
+                this.connections = 0;
+            }
+            this.connections++;
+
+            final int fairShare = Math.max(1, (budget + this.previousConnections - 1) / this.previousConnections);
+            final int allowance = starved ? Math.max(1, Math.min(fairShare, this.remaining)) : Math.min(fairShare, this.remaining); // Connections which got nothing last tick are guaranteed one chunk
+            this.remaining -= allowance;
+            return allowance;
+        }
+
+        private void release(final int unused) {
+            this.remaining += unused;
+        }
+
+    }
+
+}
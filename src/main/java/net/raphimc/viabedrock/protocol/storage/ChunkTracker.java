@@ -30,6 +30,7 @@ import com.viaversion.viaversion.api.type.Type;
 import com.viaversion.viaversion.api.type.Types;
 import com.viaversion.viaversion.api.type.types.chunk.ChunkType1_21_5;
 import com.viaversion.viaversion.libs.fastutil.ints.*;
+import com.viaversion.viaversion.libs.fastutil.longs.*;
 import com.viaversion.viaversion.protocols.v1_21_9to1_21_11.packet.ClientboundPackets1_21_11;
 import com.viaversion.viaversion.util.CompactArrayUtil;
 import com.viaversion.viaversion.util.MathUtil;
@@ -37,8 +38,12 @@ import net.raphimc.viabedrock.ViaBedrock;
 import net.raphimc.viabedrock.api.chunk.BedrockBlockEntity;
 import net.raphimc.viabedrock.api.chunk.BedrockChunk;
 import net.raphimc.viabedrock.api.chunk.BlockEntityWithBlockState;
+import net.raphimc.viabedrock.api.chunk.ChunkRemapExecutor;
+import net.raphimc.viabedrock.api.chunk.LightSections;
+import net.raphimc.viabedrock.api.chunk.datapalette.BedrockBiomeArray;
 import net.raphimc.viabedrock.api.chunk.datapalette.BedrockBlockArray;
 import net.raphimc.viabedrock.api.chunk.datapalette.BedrockDataPalette;
+import net.raphimc.viabedrock.api.chunk.datapalette.BedrockPaletteTranscoder;
 import net.raphimc.viabedrock.api.chunk.section.BedrockChunkSection;
 import net.raphimc.viabedrock.api.chunk.section.BedrockChunkSectionImpl;
 import net.raphimc.viabedrock.api.model.BedrockBlockState;
@@ -56,8 +61,8 @@ import net.raphimc.viabedrock.protocol.rewriter.StairShapeResolver;
 import net.raphimc.viabedrock.protocol.types.BedrockTypes;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 
 import net.raphimc.viabedrock.experimental.ExperimentalFeatures;
 import net.raphimc.viabedrock.experimental.light.ChunkLightProvider;
@@ -65,19 +70,26 @@ import net.raphimc.viabedrock.experimental.light.ChunkLightProvider;
 // TODO: Feature: Block connections
 public class ChunkTracker extends StoredObject {
 
+    private static final byte FLAG_NON_AIR = 1; // Java block state isn't air
+    private static final byte FLAG_SPECIAL = 1 << 1; // Block entity or item frame
+    private static final byte FLAG_BEDROCK_AIR = 1 << 2; // Bedrock block state is air
+    private static final byte FLAG_WATER = 1 << 3; // Bedrock block state is water
+
     private final Dimension dimension;
     private final String dimensionKey;
     private final int minY;
     private final int worldHeight;
     private final Type<Chunk> chunkType;
 
-    private final Map<Long, BedrockChunk> chunks = new HashMap<>();
-    private final Set<Long> dirtyChunks = new HashSet<>();
+    private final Long2ObjectMap<BedrockChunk> chunks = new Long2ObjectOpenHashMap<>();
+    private final ChunkSendScheduler chunkSendScheduler = new ChunkSendScheduler();
 
     private ChunkLightProvider lightProvider;
 
-    private final Set<SubChunkPosition> subChunkRequests = new HashSet<>();
-    private final Set<SubChunkPosition> pendingSubChunks = new HashSet<>();
+    private final LongLinkedOpenHashSet subChunkRequests = new LongLinkedOpenHashSet(); // Packed sub chunk keys (See subChunkKey)
+    private final LongSet pendingSubChunks = new LongOpenHashSet();
+    private final Queue<PendingRemap> pendingRemaps = new ArrayDeque<>();
+    private final Long2IntOpenHashMap pendingRemapCounts = new Long2IntOpenHashMap(); // Chunk key -> number of queued remaps, a chunk can be queued again before its previous remap completed
 
     private int centerX = 0;
     private int centerZ = 0;
@@ -147,8 +159,13 @@ public class ChunkTracker extends StoredObject {
     }
 
     public void unloadChunk(final ChunkPosition chunkPos) {
+        this.chunks.remove(chunkPos.chunkKey());
+        this.onChunkUnloaded(chunkPos);
+    }
+
+    private void onChunkUnloaded(final ChunkPosition chunkPos) {
         final long key = chunkPos.chunkKey();
-        this.chunks.remove(key);
+        this.chunkSendScheduler.remove(key);
         if (this.lightProvider != null) {
             this.lightProvider.onChunkUnload(key);
         }
@@ -258,7 +275,11 @@ public class ChunkTracker extends StoredObject {
         if (chunkSection.hasPendingBlockUpdates()) {
             return true;
         }
-        return this.dirtyChunks.contains(chunkPos.chunkKey());
+        return this.chunkSendScheduler.contains(chunkPos.chunkKey()) || this.isRemapPending(chunkPos.chunkX(), chunkPos.chunkZ());
+    }
+
+    public boolean isRemapPending(final int chunkX, final int chunkZ) {
+        return this.pendingRemapCounts.containsKey(ChunkPosition.chunkKey(chunkX, chunkZ));
     }
 
     public boolean isInLoadDistance(final int chunkX, final int chunkZ) {
@@ -278,15 +299,13 @@ public class ChunkTracker extends StoredObject {
     }
 
     public void removeOutOfLoadDistanceChunks() {
-        final Set<ChunkPosition> chunksToRemove = new HashSet<>();
-        for (long chunkKey : this.chunks.keySet()) {
-            final ChunkPosition chunkPos = new ChunkPosition(chunkKey);
-            if (this.isInLoadDistance(chunkPos.chunkX(), chunkPos.chunkZ())) continue;
+        final LongIterator it = this.chunks.keySet().iterator();
+        while (it.hasNext()) {
+            final long chunkKey = it.nextLong();
+            if (this.isInLoadDistance(chunkKeyX(chunkKey), chunkKeyZ(chunkKey))) continue;
 
-            chunksToRemove.add(chunkPos);
-        }
-        for (ChunkPosition chunkPos : chunksToRemove) {
-            this.unloadChunk(chunkPos);
+            it.remove();
+            this.onChunkUnloaded(new ChunkPosition(chunkKey));
         }
     }
 
@@ -298,22 +317,20 @@ public class ChunkTracker extends StoredObject {
 
     public void requestSubChunk(final int chunkX, final int subChunkY, final int chunkZ) {
         if (!this.isInLoadDistance(chunkX, chunkZ)) return;
-        this.subChunkRequests.add(new SubChunkPosition(chunkX, subChunkY, chunkZ));
+        this.subChunkRequests.add(subChunkKey(chunkX, subChunkY, chunkZ));
     }
 
     public boolean mergeSubChunk(final int chunkX, final int subChunkY, final int chunkZ, final BedrockChunkSection other, final List<BedrockBlockEntity> blockEntities) {
         if (!this.isInLoadDistance(chunkX, chunkZ)) return false;
 
-        final SubChunkPosition position = new SubChunkPosition(chunkX, subChunkY, chunkZ);
-        if (!this.pendingSubChunks.contains(position)) {
-            ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Received sub chunk that was not requested: " + position);
+        if (!this.pendingSubChunks.remove(subChunkKey(chunkX, subChunkY, chunkZ))) {
+            ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Received sub chunk that was not requested: " + chunkX + ", " + subChunkY + ", " + chunkZ);
             return false;
         }
-        this.pendingSubChunks.remove(position);
 
         final BedrockChunk chunk = this.getChunk(chunkX, chunkZ);
         if (chunk == null) {
-            ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Received sub chunk for unloaded chunk: " + position);
+            ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Received sub chunk for unloaded chunk: " + chunkX + ", " + subChunkY + ", " + chunkZ);
             return false;
         }
 
@@ -326,10 +343,21 @@ public class ChunkTracker extends StoredObject {
     }
 
     public IntObjectPair<BlockEntity> handleBlockChange(final BlockPosition blockPosition, final int layer, final int blockState) {
+        final IntObjectPair<BlockEntity> result = this.applyBlockChange(blockPosition, layer, blockState);
+        if (result != null && this.lightProvider != null) {
+            this.lightProvider.onBlockChange(this, blockPosition, result.keyInt());
+        }
+        return result;
+    }
+
+    private IntObjectPair<BlockEntity> applyBlockChange(final BlockPosition blockPosition, final int layer, final int blockState) {
         final BedrockChunkSection section = this.getChunkSection(blockPosition);
         if (section == null) {
             return null;
         }
+        if (this.isRemapPending(blockPosition.x() >> 4, blockPosition.z() >> 4)) { // The client doesn't have the chunk yet and would drop the block update
+            this.sendChunkInNextTick(blockPosition.x() >> 4, blockPosition.z() >> 4);
+        }
 
         final BlockStateRewriter blockStateRewriter = this.user().get(BlockStateRewriter.class);
         final EntityTracker entityTracker = this.user().get(EntityTracker.class);
@@ -407,7 +435,7 @@ public class ChunkTracker extends StoredObject {
     }
 
     public void sendChunkInNextTick(final int chunkX, final int chunkZ) {
-        this.dirtyChunks.add(ChunkPosition.chunkKey(chunkX, chunkZ));
+        this.chunkSendScheduler.add(ChunkPosition.chunkKey(chunkX, chunkZ));
     }
 
     public void sendChunk(final int chunkX, final int chunkZ) {
@@ -416,8 +444,14 @@ public class ChunkTracker extends StoredObject {
             return;
         }
 
-        final Chunk remappedChunk = this.remapChunk(chunk);
+        if (ChunkRemapExecutor.getInstance().isEnabled()) {
+            this.remapChunkAsync(chunk);
+        } else {
+            this.sendRemappedChunk(chunkX, chunkZ, this.remapChunk(chunk));
+        }
+    }
 
+    private void sendRemappedChunk(final int chunkX, final int chunkZ, final Chunk remappedChunk) {
         // Delegate to light provider if available
         if (this.lightProvider != null && this.lightProvider.processAndSendChunk(this, chunkX, chunkZ, remappedChunk)) {
             return;
@@ -429,59 +463,22 @@ public class ChunkTracker extends StoredObject {
         }
 
         final int lightSectionCount = remappedChunk.getSections().length + 2;
-        final byte[][] skyLight = generatePlaceholderSkyLight(lightSectionCount);
+        final byte[][] skyLight = LightSections.fullBright(lightSectionCount);
         final byte[][] blockLight = new byte[lightSectionCount][];
 
         this.sendChunkWithLight(remappedChunk, skyLight, blockLight, lightSectionCount);
     }
 
     public void sendChunkWithLight(final Chunk remappedChunk, final byte[][] skyLight, final byte[][] blockLight, final int lightSectionCount) {
-        final BitSet skyLightMask = new BitSet();
-        final BitSet blockLightMask = new BitSet();
-        final BitSet emptySkyLightMask = new BitSet();
-        final BitSet emptyBlockLightMask = new BitSet();
-
-        final List<byte[]> skyLightArrays = new ArrayList<>();
-        final List<byte[]> blockLightArrays = new ArrayList<>();
-
-        for (int i = 0; i < lightSectionCount; i++) {
-            skyLightMask.set(i);
-            skyLightArrays.add(skyLight[i]);
-
-            if (blockLight[i] != null) {
-                blockLightMask.set(i);
-                blockLightArrays.add(blockLight[i]);
-            } else {
-                emptyBlockLightMask.set(i);
-            }
-        }
+        final BitSet lightSections = new BitSet();
+        lightSections.set(0, lightSectionCount);
 
         final PacketWrapper levelChunkWithLight = PacketWrapper.create(ClientboundPackets1_21_11.LEVEL_CHUNK_WITH_LIGHT, this.user());
         levelChunkWithLight.write(this.chunkType, remappedChunk); // chunk
-        levelChunkWithLight.write(Types.LONG_ARRAY_PRIMITIVE, skyLightMask.toLongArray()); // sky light mask
-        levelChunkWithLight.write(Types.LONG_ARRAY_PRIMITIVE, blockLightMask.toLongArray()); // block light mask
-        levelChunkWithLight.write(Types.LONG_ARRAY_PRIMITIVE, emptySkyLightMask.toLongArray()); // empty sky light mask
-        levelChunkWithLight.write(Types.LONG_ARRAY_PRIMITIVE, emptyBlockLightMask.toLongArray()); // empty block light mask
-        levelChunkWithLight.write(Types.VAR_INT, skyLightArrays.size()); // sky light length
-        for (byte[] array : skyLightArrays) {
-            levelChunkWithLight.write(Types.BYTE_ARRAY_PRIMITIVE, array); // sky light
-        }
-        levelChunkWithLight.write(Types.VAR_INT, blockLightArrays.size()); // block light length
-        for (byte[] array : blockLightArrays) {
-            levelChunkWithLight.write(Types.BYTE_ARRAY_PRIMITIVE, array); // block light
-        }
+        LightSections.write(levelChunkWithLight, skyLight, blockLight, lightSections, lightSections);
         levelChunkWithLight.send(BedrockProtocol.class);
     }
 
-    private static byte[][] generatePlaceholderSkyLight(final int lightSectionCount) {
-        final byte[][] skyLight = new byte[lightSectionCount][];
-        for (int i = 0; i < lightSectionCount; i++) {
-            skyLight[i] = new byte[ChunkSectionLight.LIGHT_LENGTH];
-            Arrays.fill(skyLight[i], (byte) 0xFF);
-        }
-        return skyLight;
-    }
-
     public void stripCustomBlockData(final Chunk chunk) {
         final int vanillaBlockStateCount = BedrockProtocol.MAPPINGS.getVanillaBlockStateCount();
         final int vanillaBlockEntityCount = BedrockProtocol.MAPPINGS.getVanillaBlockEntityCount();
@@ -523,6 +520,10 @@ public class ChunkTracker extends StoredObject {
         return this.worldHeight;
     }
 
+    public ChunkSendScheduler getChunkSendScheduler() {
+        return this.chunkSendScheduler;
+    }
+
     public int airId() {
         return this.user().get(BlockStateRewriter.class).bedrockId(BedrockBlockState.AIR);
     }
@@ -531,23 +532,12 @@ public class ChunkTracker extends StoredObject {
         boolean empty = true;
         empty &= this.chunks.isEmpty();
         empty &= this.subChunkRequests.isEmpty() && this.pendingSubChunks.isEmpty();
+        empty &= this.pendingRemaps.isEmpty();
         return empty;
     }
 
-    private static final int MAX_CHUNKS_PER_TICK = 4;
-
     public void tick() {
-        if (!this.dirtyChunks.isEmpty()) {
-            int count = 0;
-            final Iterator<Long> it = this.dirtyChunks.iterator();
-            while (it.hasNext() && count < MAX_CHUNKS_PER_TICK) {
-                final long dirtyChunk = it.next();
-                it.remove();
-                final ChunkPosition chunkPos = new ChunkPosition(dirtyChunk);
-                this.sendChunk(chunkPos.chunkX(), chunkPos.chunkZ());
-                count++;
-            }
-        }
+        this.chunkSendScheduler.sendChunks(this.user().getChannel().eventLoop(), this.centerX, this.centerZ, this::sendChunk);
 
         if (this.lightProvider != null) {
             this.lightProvider.tick();
@@ -557,19 +547,29 @@ public class ChunkTracker extends StoredObject {
             return;
         }
 
-        this.subChunkRequests.removeIf(s -> !this.isInLoadDistance(s.chunkX, s.chunkZ));
+        final LongIterator it = this.subChunkRequests.iterator();
+        while (it.hasNext()) {
+            final long subChunkKey = it.nextLong();
+            if (!this.isInLoadDistance(subChunkX(subChunkKey), subChunkZ(subChunkKey))) {
+                it.remove();
+            }
+        }
         final BlockPosition basePosition = new BlockPosition(this.centerX, 0, this.centerZ);
+        final long[] group = new long[Math.min(this.subChunkRequests.size(), 256)];
         while (!this.subChunkRequests.isEmpty()) {
-            final Set<SubChunkPosition> group = this.subChunkRequests.stream().limit(256).collect(Collectors.toSet());
-            this.subChunkRequests.removeAll(group);
-            this.pendingSubChunks.addAll(group);
+            int groupSize = 0;
+            while (!this.subChunkRequests.isEmpty() && groupSize < group.length) {
+                final long subChunkKey = this.subChunkRequests.removeFirstLong();
+                this.pendingSubChunks.add(subChunkKey);
+                group[groupSize++] = subChunkKey;
+            }
 
             final PacketWrapper subChunkRequest = PacketWrapper.create(ServerboundBedrockPackets.SUB_CHUNK_REQUEST, this.user());
             subChunkRequest.write(BedrockTypes.VAR_INT, this.dimension.ordinal()); // dimension id
             subChunkRequest.write(BedrockTypes.POSITION_3I, basePosition); // base position
-            subChunkRequest.write(BedrockTypes.INT_LE, group.size()); // sub chunk offset count
-            for (SubChunkPosition subChunkPosition : group) {
-                final BlockPosition offset = new BlockPosition(subChunkPosition.chunkX - basePosition.x(), subChunkPosition.subChunkY, subChunkPosition.chunkZ - basePosition.z());
+            subChunkRequest.write(BedrockTypes.INT_LE, groupSize); // sub chunk offset count
+            for (int i = 0; i < groupSize; i++) {
+                final BlockPosition offset = new BlockPosition(subChunkX(group[i]) - basePosition.x(), subChunkY(group[i]), subChunkZ(group[i]) - basePosition.z());
                 subChunkRequest.write(BedrockTypes.SUB_CHUNK_OFFSET, offset); // offset
             }
             subChunkRequest.sendToServer(BedrockProtocol.class);
@@ -577,12 +577,62 @@ public class ChunkTracker extends StoredObject {
     }
 
     private Chunk remapChunk(final BedrockChunk chunk) {
+        return this.finishRemap(chunk, remapSections(this.user().get(BlockStateRewriter.class), this.airId(), chunk.getX(), chunk.getZ(), chunk.getSections()));
+    }
+
+    private void remapChunkAsync(final BedrockChunk chunk) {
         final BlockStateRewriter blockStateRewriter = this.user().get(BlockStateRewriter.class);
         final int airId = this.airId();
+        final BedrockChunkSection[] sections = snapshotSections(chunk.getSections()); // The event loop might modify the chunk while it is being remapped
+        final CompletableFuture<RemappedSections> future = CompletableFuture.supplyAsync(() -> remapSections(blockStateRewriter, airId, chunk.getX(), chunk.getZ(), sections), ChunkRemapExecutor.getInstance().getExecutor());
+        this.pendingRemaps.add(new PendingRemap(chunk, future));
+        this.pendingRemapCounts.addTo(ChunkPosition.chunkKey(chunk.getX(), chunk.getZ()), 1);
+
+        final UserConnection user = this.user();
+        future.whenComplete((result, throwable) -> user.getChannel().eventLoop().execute(() -> {
+            if (!user.getChannel().isActive()) return;
+
+            try {
+                this.sendCompletedRemaps();
+            } catch (Throwable e) {
+                BedrockProtocol.kickForIllegalState(user, "Error remapping chunk. See console for details.", e);
+            }
+        }));
+    }
 
-        final Chunk remappedChunk = new Chunk1_21_5(chunk.getX(), chunk.getZ(), new ChunkSection[chunk.getSections().length], new Heightmap[2], new ArrayList<>());
+    /**
+     * Sends all chunks which finished remapping in the order they were submitted.
+     */
+    private void sendCompletedRemaps() {
+        while (!this.pendingRemaps.isEmpty() && this.pendingRemaps.peek().future().isDone()) {
+            final PendingRemap pendingRemap = this.pendingRemaps.poll();
+            final BedrockChunk chunk = pendingRemap.chunk();
+            final long chunkKey = ChunkPosition.chunkKey(chunk.getX(), chunk.getZ());
+            if (this.pendingRemapCounts.addTo(chunkKey, -1) == 1) {
+                this.pendingRemapCounts.remove(chunkKey);
+            }
+            if (this.user().get(ChunkTracker.class) != this || this.getChunk(chunk.getX(), chunk.getZ()) != chunk) {
+                continue; // Dimension changed or chunk was unloaded/replaced in the meantime
+            }
+
+            this.sendRemappedChunk(chunk.getX(), chunk.getZ(), this.finishRemap(chunk, pendingRemap.future().join()));
+        }
+    }
+
+    /**
+     * Remaps the block and biome palettes of the given sections. This doesn't access any connection state and can run off the event loop.
+     *
+     * @param blockStateRewriter The block state rewriter of the connection
+     * @param airId              The bedrock air block state id
+     * @param chunkX             The chunk x coordinate
+     * @param chunkZ             The chunk z coordinate
+     * @param bedrockSections    The sections to remap. They are only read
+     * @return The remapped chunk and all blocks which need further processing on the event loop
+     */
+    private static RemappedSections remapSections(final BlockStateRewriter blockStateRewriter, final int airId, final int chunkX, final int chunkZ, final BedrockChunkSection[] bedrockSections) {
+        final Chunk remappedChunk = new Chunk1_21_5(chunkX, chunkZ, new ChunkSection[bedrockSections.length], new Heightmap[2], new ArrayList<>());
+        final List<SpecialBlock> specialBlocks = new ArrayList<>();
 
-        final BedrockChunkSection[] bedrockSections = chunk.getSections();
         final ChunkSection[] remappedSections = remappedChunk.getSections();
         for (int idx = 0; idx < bedrockSections.length; idx++) {
             final BedrockChunkSection bedrockSection = bedrockSections[idx];
@@ -592,14 +642,22 @@ public class ChunkTracker extends StoredObject {
 
             if (!blockPalettes.isEmpty()) {
                 final DataPalette layer0 = blockPalettes.get(0);
+                final DataPalette layer1 = blockPalettes.size() > 1 ? blockPalettes.get(1) : null;
                 if (layer0.size() == 1) {
                     remappedBlockPalette.addId(layer0.idByIndex(0));
                 } else {
-                    this.transferPaletteData(layer0, remappedBlockPalette);
+                    transferPaletteData(layer0, remappedBlockPalette);
                 }
 
-                final String[] paletteIndexBlockStateTags = new String[remappedBlockPalette.size()];
-                for (int i = 0; i < remappedBlockPalette.size(); i++) {
+                // Compute everything which only depends on the block state once per palette entry instead of once per block
+                final int paletteSize = remappedBlockPalette.size();
+                final int[] bedrockBlockStates = new int[paletteSize];
+                final String[] paletteIndexBlockStateTags = new String[paletteSize];
+                final byte[] paletteIndexFlags = new byte[paletteSize];
+                boolean hasAir = false;
+                boolean hasNonAir = false;
+                boolean hasSpecialBlocks = false;
+                for (int i = 0; i < paletteSize; i++) {
                     final int bedrockBlockState = remappedBlockPalette.idByIndex(i);
                     int javaBlockState = blockStateRewriter.javaId(bedrockBlockState);
                     if (javaBlockState == -1) {
@@ -607,72 +665,72 @@ public class ChunkTracker extends StoredObject {
                         javaBlockState = 0;
                     }
                     remappedBlockPalette.setIdByIndex(i, javaBlockState);
+                    bedrockBlockStates[i] = bedrockBlockState;
 
-                    paletteIndexBlockStateTags[i] = blockStateRewriter.tag(bedrockBlockState);
+                    final String tag = blockStateRewriter.tag(bedrockBlockState);
+                    paletteIndexBlockStateTags[i] = tag;
+                    if (javaBlockState != 0) {
+                        paletteIndexFlags[i] |= FLAG_NON_AIR;
+                        hasNonAir = true;
+                    } else {
+                        hasAir = true;
+                    }
+                    if (tag != null && (BlockEntityRewriter.isJavaBlockEntity(tag) || CustomBlockTags.ITEM_FRAME.equals(tag))) {
+                        paletteIndexFlags[i] |= FLAG_SPECIAL;
+                        hasSpecialBlocks = true;
+                    }
+                    if (bedrockBlockState == airId) {
+                        paletteIndexFlags[i] |= FLAG_BEDROCK_AIR;
+                    }
                 }
 
-                int nonAirBlockCount = 0;
-                for (int x = 0; x < 16; x++) {
-                    for (int z = 0; z < 16; z++) {
-                        for (int y = 0; y < 16; y++) {
-                            final int paletteIndex = remappedBlockPalette.paletteIndexAt(remappedBlockPalette.index(x, y, z));
-                            final int javaBlockState = remappedBlockPalette.idByIndex(paletteIndex);
-                            if (javaBlockState != 0) {
-                                nonAirBlockCount++;
-                            }
-
-                            final String tag = paletteIndexBlockStateTags[paletteIndex];
-                            if (tag == null) continue;
-
-                            final int absY = this.minY + idx * 16 + y;
-                            final BlockPosition position = new BlockPosition(chunk.getX() * 16 + x, absY, chunk.getZ() * 16 + z);
-                            if (BlockEntityRewriter.isJavaBlockEntity(tag)) {
-                                final BedrockBlockEntity bedrockBlockEntity = chunk.getBlockEntityAt(position);
-                                if (bedrockBlockEntity != null) {
-                                    final BlockEntity javaBlockEntity = BlockEntityRewriter.toJava(this.user(), layer0.idAt(x, y, z), bedrockBlockEntity);
-                                    if (javaBlockEntity instanceof BlockEntityWithBlockState blockEntityWithBlockState) {
-                                        remappedBlockPalette.setIdAt(x, y, z, blockEntityWithBlockState.blockState());
-                                    }
-                                    if (javaBlockEntity != null && javaBlockEntity.tag() != null) {
-                                        remappedChunk.blockEntities().add(javaBlockEntity);
-                                    }
-                                } else if (BedrockProtocol.MAPPINGS.getJavaBlockEntities().containsKey(tag)) {
-                                    final int javaType = BedrockProtocol.MAPPINGS.getJavaBlockEntities().get(tag);
-                                    final BlockEntity javaBlockEntity = new BlockEntityImpl(BlockEntity.pack(x, z), (short) absY, javaType, new CompoundTag());
-                                    remappedChunk.blockEntities().add(javaBlockEntity);
-                                }
-                            } else if (CustomBlockTags.ITEM_FRAME.equals(tag)) {
-                                this.user().get(EntityTracker.class).spawnItemFrame(position, blockStateRewriter.blockState(layer0.idAt(x, y, z)));
-                            }
+                final byte[] layer1Flags = layer1 != null ? computeLayer1Flags(blockStateRewriter, airId, layer1) : null;
+                if (hasAir && hasNonAir || hasSpecialBlocks) { // Only visit the individual blocks if the palette alone isn't enough
+                    int nonAirBlockCount = 0;
+                    for (int i = 0; i < ChunkSection.SIZE; i++) {
+                        final int paletteIndex = remappedBlockPalette.paletteIndexAt(i);
+                        final byte flags = paletteIndexFlags[paletteIndex];
+                        if ((flags & FLAG_NON_AIR) != 0) {
+                            nonAirBlockCount++;
+                        }
+                        if ((flags & FLAG_SPECIAL) != 0) {
+                            final int x = i & 15;
+                            final int y = i >> 8;
+                            final int z = (i >> 4) & 15;
+                            final boolean waterlogged = layer1Flags != null && (layer1Flags[layer1.paletteIndexAt(layer1.index(x, y, z))] & FLAG_WATER) != 0;
+                            specialBlocks.add(new SpecialBlock(idx, x, y, z, bedrockBlockStates[paletteIndex], paletteIndexBlockStateTags[paletteIndex], waterlogged));
                         }
                     }
+                    remappedSection.setNonAirBlocksCount(nonAirBlockCount);
+                } else {
+                    remappedSection.setNonAirBlocksCount(hasNonAir ? ChunkSection.SIZE : 0);
                 }
-                remappedSection.setNonAirBlocksCount(nonAirBlockCount);
-
-                if (blockPalettes.size() > 1) {
-                    final DataPalette layer1 = blockPalettes.get(1);
-                    if (layer1.size() != 1 || layer1.idByIndex(0) != airId) {
-                        for (int x = 0; x < 16; x++) {
-                            for (int z = 0; z < 16; z++) {
-                                for (int y = 0; y < 16; y++) {
-                                    final int prevBlockState = layer0.idAt(x, y, z);
-                                    if (prevBlockState == airId) continue;
-                                    final int blockState = layer1.idAt(x, y, z);
-                                    if (blockState == airId) continue;
-                                    final int javaBlockState = remappedBlockPalette.idAt(x, y, z);
-
-                                    if (CustomBlockTags.WATER.equals(blockStateRewriter.tag(blockState))) { // Waterlogging
-                                        final int remappedBlockState = blockStateRewriter.waterlog(javaBlockState);
-                                        if (remappedBlockState == -1) {
-                                            ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Missing waterlogged block state: " + prevBlockState);
-                                        } else {
-                                            remappedBlockPalette.setIdAt(x, y, z, remappedBlockState);
-                                        }
-                                    } else {
-                                        ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Invalid layer 2 block state. L1: " + prevBlockState + ", L2: " + blockState);
-                                    }
+
+                if (layer1Flags != null) {
+                    final int[] waterloggedBlockStates = new int[paletteSize];
+                    Arrays.fill(waterloggedBlockStates, Integer.MIN_VALUE);
+                    for (int i = 0; i < ChunkSection.SIZE; i++) {
+                        final int paletteIndex = remappedBlockPalette.paletteIndexAt(i);
+                        if ((paletteIndexFlags[paletteIndex] & FLAG_BEDROCK_AIR) != 0) continue;
+                        final int x = i & 15;
+                        final int y = i >> 8;
+                        final int z = (i >> 4) & 15;
+                        final int layer1PaletteIndex = layer1.paletteIndexAt(layer1.index(x, y, z));
+                        final byte flags = layer1Flags[layer1PaletteIndex];
+                        if ((flags & FLAG_BEDROCK_AIR) != 0) continue;
+
+                        if ((flags & FLAG_WATER) != 0) { // Waterlogging
+                            if (waterloggedBlockStates[paletteIndex] == Integer.MIN_VALUE) {
+                                waterloggedBlockStates[paletteIndex] = blockStateRewriter.waterlog(remappedBlockPalette.idByIndex(paletteIndex));
+                                if (waterloggedBlockStates[paletteIndex] == -1) {
+                                    ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Missing waterlogged block state: " + bedrockBlockStates[paletteIndex]);
                                 }
                             }
+                            if (waterloggedBlockStates[paletteIndex] != -1) {
+                                remappedBlockPalette.setIdAt(i, waterloggedBlockStates[paletteIndex]);
+                            }
+                        } else {
+                            ViaBedrock.getPlatform().getLogger().log(Level.WARNING, "Invalid layer 2 block state. L1: " + bedrockBlockStates[paletteIndex] + ", L2: " + layer1.idByIndex(layer1PaletteIndex));
                         }
                     }
                 }
@@ -730,6 +788,78 @@ public class ChunkTracker extends StoredObject {
             }
         }
 
+        return new RemappedSections(remappedChunk, specialBlocks);
+    }
+
+    /**
+     * Computes the flags of all palette entries of a second block layer.
+     *
+     * @return The flags by palette index or null if the layer only contains air
+     */
+    private static byte[] computeLayer1Flags(final BlockStateRewriter blockStateRewriter, final int airId, final DataPalette layer1) {
+        final byte[] flags = new byte[layer1.size()];
+        boolean onlyAir = true;
+        for (int i = 0; i < flags.length; i++) {
+            final int blockState = layer1.idByIndex(i);
+            if (blockState == airId) {
+                flags[i] |= FLAG_BEDROCK_AIR;
+            } else {
+                onlyAir = false;
+                if (CustomBlockTags.WATER.equals(blockStateRewriter.tag(blockState))) {
+                    flags[i] |= FLAG_WATER;
+                }
+            }
+        }
+        return onlyAir ? null : flags;
+    }
+
+    /**
+     * Finishes remapping a chunk on the event loop. This converts block entities, spawns item frames and fixes blocks which depend on their neighbors.
+     *
+     * @param chunk            The bedrock chunk
+     * @param result The result of {@link #remapSections}
+     * @return The remapped chunk
+     */
+    private Chunk finishRemap(final BedrockChunk chunk, final RemappedSections result) {
+        final BlockStateRewriter blockStateRewriter = this.user().get(BlockStateRewriter.class);
+        final Chunk remappedChunk = result.chunk();
+        final ChunkSection[] remappedSections = remappedChunk.getSections();
+
+        for (SpecialBlock specialBlock : result.specialBlocks()) {
+            final DataPalette remappedBlockPalette = remappedSections[specialBlock.sectionIndex()].palette(PaletteType.BLOCKS);
+            final int x = specialBlock.x();
+            final int y = specialBlock.y();
+            final int z = specialBlock.z();
+            final String tag = specialBlock.tag();
+            final int absY = this.minY + specialBlock.sectionIndex() * 16 + y;
+            final BlockPosition position = new BlockPosition(chunk.getX() * 16 + x, absY, chunk.getZ() * 16 + z);
+            if (BlockEntityRewriter.isJavaBlockEntity(tag)) {
+                final BedrockBlockEntity bedrockBlockEntity = chunk.getBlockEntityAt(position);
+                if (bedrockBlockEntity != null) {
+                    final BlockEntity javaBlockEntity = BlockEntityRewriter.toJava(this.user(), specialBlock.blockState(), bedrockBlockEntity);
+                    if (javaBlockEntity instanceof BlockEntityWithBlockState blockEntityWithBlockState) {
+                        int javaBlockState = blockEntityWithBlockState.blockState();
+                        if (specialBlock.waterlogged()) {
+                            final int waterloggedBlockState = blockStateRewriter.waterlog(javaBlockState);
+                            if (waterloggedBlockState != -1) {
+                                javaBlockState = waterloggedBlockState;
+                            }
+                        }
+                        remappedBlockPalette.setIdAt(x, y, z, javaBlockState);
+                    }
+                    if (javaBlockEntity != null && javaBlockEntity.tag() != null) {
+                        remappedChunk.blockEntities().add(javaBlockEntity);
+                    }
+                } else if (BedrockProtocol.MAPPINGS.getJavaBlockEntities().containsKey(tag)) {
+                    final int javaType = BedrockProtocol.MAPPINGS.getJavaBlockEntities().get(tag);
+                    final BlockEntity javaBlockEntity = new BlockEntityImpl(BlockEntity.pack(x, z), (short) absY, javaType, new CompoundTag());
+                    remappedChunk.blockEntities().add(javaBlockEntity);
+                }
+            } else if (CustomBlockTags.ITEM_FRAME.equals(tag)) {
+                this.user().get(EntityTracker.class).spawnItemFrame(position, blockStateRewriter.blockState(specialBlock.blockState()));
+            }
+        }
+
         // Fix stair shapes based on neighboring blocks
         StairShapeResolver.fixChunkStairShapes(this, remappedChunk, chunk.getX(), chunk.getZ(), this.minY);
 
@@ -741,23 +871,38 @@ public class ChunkTracker extends StoredObject {
         final int[] motionBlocking = new int[16 * 16];
         Arrays.fill(worldSurface, Integer.MIN_VALUE);
         Arrays.fill(motionBlocking, Integer.MIN_VALUE);
+
+        // Look up the motion blocking property once per palette entry instead of once per block
+        final boolean[][] motionBlockingPaletteIndices = new boolean[remappedSections.length][];
+        for (int idx = 0; idx < remappedSections.length; idx++) {
+            final DataPalette blockPalette = remappedSections[idx].palette(PaletteType.BLOCKS);
+            if (blockPalette.size() == 1 && blockPalette.idByIndex(0) == 0) continue;
+
+            final boolean[] paletteIndices = new boolean[blockPalette.size()];
+            for (int i = 0; i < paletteIndices.length; i++) {
+                paletteIndices[i] = motionBlockingBlockStates.contains(blockPalette.idByIndex(i));
+            }
+            motionBlockingPaletteIndices[idx] = paletteIndices;
+        }
+
         for (int x = 0; x < 16; x++) {
             for (int z = 0; z < 16; z++) {
                 final int index = z << 4 | x;
                 FIND_Y:
                 for (int idx = remappedSections.length - 1; idx >= 0; idx--) {
+                    final boolean[] paletteIndices = motionBlockingPaletteIndices[idx];
+                    if (paletteIndices == null) continue;
                     final DataPalette blockPalette = remappedSections[idx].palette(PaletteType.BLOCKS);
-                    if (blockPalette.size() == 1 && blockPalette.idByIndex(0) == 0) continue;
 
                     for (int y = 15; y >= 0; y--) {
-                        final int blockState = blockPalette.idAt(x, y, z);
-                        if (blockState != 0) {
+                        final int paletteIndex = blockPalette.paletteIndexAt(blockPalette.index(x, y, z));
+                        if (blockPalette.idByIndex(paletteIndex) != 0) {
                             final int value = idx * 16 + y + 1;
 
                             if (worldSurface[index] == Integer.MIN_VALUE) {
                                 worldSurface[index] = value;
                             }
-                            if (motionBlocking[index] == Integer.MIN_VALUE && motionBlockingBlockStates.contains(blockState)) {
+                            if (motionBlocking[index] == Integer.MIN_VALUE && paletteIndices[paletteIndex]) {
                                 motionBlocking[index] = value;
                                 break FIND_Y;
                             }
@@ -809,7 +954,7 @@ public class ChunkTracker extends StoredObject {
         for (DataPalette palette : palettes) {
             if (palette instanceof BedrockBlockArray blockArray) {
                 final BedrockDataPalette dataPalette = new BedrockDataPalette();
-                this.transferPaletteData(blockArray, dataPalette);
+                transferPaletteData(blockArray, dataPalette);
                 for (int i = 0; i < dataPalette.size(); i++) {
                     final int blockState = dataPalette.idByIndex(i);
                     int remappedBlockState = blockStateRewriter.bedrockId(blockState);
@@ -830,7 +975,12 @@ public class ChunkTracker extends StoredObject {
      * @param source The source palette
      * @param target The target palette
      */
-    private void transferPaletteData(final DataPalette source, final DataPalette target) {
+    private static void transferPaletteData(final DataPalette source, final DataPalette target) {
+        if (source instanceof BedrockDataPalette bedrockDataPalette && !(target instanceof BedrockDataPalette) && target.size() == 0) {
+            BedrockPaletteTranscoder.transcode(bedrockDataPalette, target);
+            return;
+        }
+
         for (int x = 0; x < 16; x++) {
             for (int y = 0; y < 16; y++) {
                 for (int z = 0; z < 16; z++) {
@@ -840,7 +990,69 @@ public class ChunkTracker extends StoredObject {
         }
     }
 
-    private record SubChunkPosition(int chunkX, int subChunkY, int chunkZ) {
+    private static BedrockChunkSection[] snapshotSections(final BedrockChunkSection[] sections) {
+        final BedrockChunkSection[] snapshot = new BedrockChunkSection[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            final BedrockChunkSection section = sections[i];
+            final BedrockChunkSection sectionSnapshot = snapshot[i] = new BedrockChunkSectionImpl(true);
+            for (DataPalette palette : section.palettes(PaletteType.BLOCKS)) {
+                sectionSnapshot.addPalette(PaletteType.BLOCKS, snapshotPalette(palette));
+            }
+            final DataPalette biomePalette = section.palette(PaletteType.BIOMES);
+            if (biomePalette != null) {
+                sectionSnapshot.addPalette(PaletteType.BIOMES, snapshotPalette(biomePalette));
+            }
+        }
+        return snapshot;
+    }
+
+    private static DataPalette snapshotPalette(final DataPalette palette) {
+        if (palette instanceof BedrockDataPalette bedrockDataPalette) {
+            return bedrockDataPalette.clone();
+        } else if (palette instanceof BedrockBiomeArray bedrockBiomeArray) {
+            return bedrockBiomeArray.clone();
+        } else {
+            throw new IllegalStateException("Unsupported palette type: " + palette.getClass().getName());
+        }
+    }
+
+    static int chunkKeyX(final long chunkKey) { // Same layout as ChunkPosition#chunkKey
+        return (int) chunkKey;
+    }
+
+    static int chunkKeyZ(final long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    /**
+     * Packs a sub chunk position into a long. X and Z use 26 bits each, Y uses 12 bits.
+     */
+    private static long subChunkKey(final int chunkX, final int subChunkY, final int chunkZ) {
+        return ((long) (chunkX & 0x3FFFFFF) << 38) | ((long) (chunkZ & 0x3FFFFFF) << 12) | (subChunkY & 0xFFF);
+    }
+
+    private static int subChunkX(final long subChunkKey) {
+        return (int) (subChunkKey >> 38);
+    }
+
+    private static int subChunkY(final long subChunkKey) {
+        return (int) (subChunkKey << 52 >> 52);
+    }
+
+    private static int subChunkZ(final long subChunkKey) {
+        return (int) (subChunkKey << 26 >> 38);
+    }
+
+    private record RemappedSections(Chunk chunk, List<SpecialBlock> specialBlocks) {
+    }
+
+    /**
+     * A block which needs to be processed on the event loop (block entity or item frame).
+     */
+    private record SpecialBlock(int sectionIndex, int x, int y, int z, int blockState, String tag, boolean waterlogged) {
+    }
+
+    private record PendingRemap(BedrockChunk chunk, CompletableFuture<RemappedSections> future) {
     }
 
 }
@@ -22,6 +22,7 @@ import com.viaversion.viaversion.api.connection.StoredObject;
 import com.viaversion.viaversion.api.connection.UserConnection;
 import com.viaversion.viaversion.api.protocol.packet.PacketWrapper;
 import com.viaversion.viaversion.api.type.Types;
+import io.netty.channel.ChannelFutureListener;
 import net.raphimc.viabedrock.ViaBedrock;
 import net.raphimc.viabedrock.api.model.resourcepack.*;
 import net.raphimc.viabedrock.protocol.BedrockProtocol;
@@ -31,6 +32,7 @@ import net.raphimc.viabedrock.protocol.types.BedrockTypes;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -99,7 +101,8 @@ public class ResourcePacksStorage extends StoredObject {
 
     private boolean javaClientWaitingForPack;
     private boolean loadedOnJavaClient;
-    private final Map<String, Object> converterData = new HashMap<>();
+    private final Map<String, Object> converterData = new ConcurrentHashMap<>();
+    private final ChannelFutureListener closeListener = future -> this.releasePacks();
 
     private TextDefinitions texts;
     private BlockDefinitions blocks;
@@ -116,6 +119,9 @@ public class ResourcePacksStorage extends StoredObject {
 
     public ResourcePacksStorage(final UserConnection user) {
         super(user);
+        if (user.getChannel() != null) {
+            user.getChannel().closeFuture().addListener(this.closeListener);
+        }
     }
 
     public void sendResponseIfAllDownloadsCompleted() {
@@ -177,7 +183,19 @@ public class ResourcePacksStorage extends StoredObject {
     }
 
     public void addPack(final ResourcePack pack) {
-        this.packs.put(pack.packId(), pack);
+        final ResourcePack previousPack = this.packs.put(pack.packId(), pack);
+        if (previousPack != null && previousPack != pack) {
+            previousPack.releaseContent();
+        }
+    }
+
+    public void releasePacks() {
+        if (this.user().getChannel() != null) { // Don't keep replaced storages reachable until the connection closes
+            this.user().getChannel().closeFuture().removeListener(this.closeListener);
+        }
+        for (ResourcePack pack : this.packs.values()) {
+            pack.releaseContent();
+        }
     }
 
     public void setPackStack(final UUID[] resourcePackStack) {
@@ -192,18 +210,19 @@ public class ResourcePacksStorage extends StoredObject {
         this.packStackBottomToTop.addAll(this.packStackTopToBottom);
         Collections.reverse(this.packStackBottomToTop);
 
-        this.texts = new TextDefinitions(this);
-        this.blocks = new BlockDefinitions(this);
-        this.items = new ItemDefinitions(this);
-        this.attachables = new AttachableDefinitions(this);
-        this.textures = new TextureDefinitions(this);
-        this.sounds = new SoundDefinitions(this);
-        this.particles = new ParticleDefinitions(this);
-        this.entities = new EntityDefinitions(this);
-        this.models = new ModelDefinitions(this);
-        this.fogs = new FogDefinitions(this);
-        this.biomes = new BiomeDefinitions(this);
-        this.renderControllers = new RenderControllerDefinitions(this);
+        final ResourcePackDefinitionsCache.Definitions definitions = ResourcePackDefinitionsCache.getInstance().get(this);
+        this.texts = definitions.texts();
+        this.blocks = definitions.blocks();
+        this.items = new ItemDefinitions(definitions.items()); // Items can be added by the server
+        this.attachables = definitions.attachables();
+        this.textures = definitions.textures();
+        this.sounds = definitions.sounds();
+        this.particles = definitions.particles();
+        this.entities = definitions.entities();
+        this.models = definitions.models();
+        this.fogs = definitions.fogs();
+        this.biomes = definitions.biomes();
+        this.renderControllers = definitions.renderControllers();
     }
 
     public List<ResourcePack> getPackStackTopToBottom() {
@@ -20,12 +20,14 @@ package net.raphimc.viabedrock.protocol.task;
 import com.viaversion.viaversion.api.Via;
 import com.viaversion.viaversion.api.connection.UserConnection;
 import net.raphimc.viabedrock.protocol.BedrockProtocol;
+import net.raphimc.viabedrock.protocol.storage.ChunkSendScheduler;
 import net.raphimc.viabedrock.protocol.storage.ChunkTracker;
 
 public class ChunkTrackerTickTask implements Runnable {
 
     @Override
     public void run() {
+        ChunkSendScheduler.nextTick();
         for (UserConnection info : Via.getManager().getConnectionManager().getConnections()) {
             final ChunkTracker chunkTracker = info.get(ChunkTracker.class);
             if (chunkTracker != null) {